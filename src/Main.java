@@ -1,29 +1,86 @@
 import model.Customer;
+import server.CustomerHttpServer;
+import service.ColumnarCustomerStore;
+import service.CustomerDirectory;
+import service.CustomerPreview;
+import service.CustomerReport;
 import service.CustomerService;
+import service.CustomerSnapshot;
+import service.CustomerStore;
+import service.DiskCustomerStore;
+import service.DuplicateContactException;
+import service.ImportResult;
+import service.ObjectCustomerStore;
+import service.ShardedCustomerService;
+import storage.CsvImportReader;
+import storage.CustomerJournal;
 import storage.FileStorage;
+import storage.LazySnapshot;
+import storage.PersistenceScheduler;
 import util.InputHelper;
+import util.Metrics;
+import util.Validation;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Collections;
 import java.util.Scanner;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 public class Main {
     private static final String DATA_FILE = "data/customers.csv";
+    // The journal is synced by the persistence scheduler rather than on every write.
+    private static final int JOURNAL_SYNC_EVERY = 0;
+    private static final int JOURNAL_COMPACT_AFTER = 10_000;
+    private static final long SYNC_DELAY_MILLIS = 50;
+    private static final int SYNC_AFTER_OPS = 256;
+    private static final long CHECKPOINT_DELAY_MILLIS = 30_000;
+    private static final int IMPORT_BATCH_SIZE = 10_000;
+    private static final int DISK_CACHE_SIZE = 100_000;
+    private static final int HTTP_THREADS = 64;
+    private static final int FUZZY_RESULTS = 20;
 
     public static void main(String[] args) {
         Scanner scanner = new Scanner(System.in);
+        if (Metrics.ENABLED) {
+            Metrics.registerMBean();
+        }
         InputHelper input = new InputHelper(scanner);
-        FileStorage storage = new FileStorage(DATA_FILE);
-        CustomerService service = new CustomerService(storage.loadFromFile());
+        String dataFile = System.getProperty("customers.file", DATA_FILE);
+        int shards = Math.max(1, Integer.getInteger("customers.shards", 1));
+        FileStorage storage = new FileStorage(dataFile, shards);
+        CustomerJournal journal = new CustomerJournal(journalPathFor(dataFile), storage, JOURNAL_SYNC_EVERY, JOURNAL_COMPACT_AFTER);
+        CustomerDirectory service;
+        try {
+            service = openService(journal, storeFor(System.getProperty("customers.store", "objects"), shards),
+                    shards, Boolean.getBoolean("customers.lazy"), Boolean.getBoolean("customers.trackReport"),
+                    Boolean.getBoolean("customers.uniqueContacts"));
+        } catch (IllegalStateException e) {
+            // Running on without the customers would let the next save overwrite them.
+            System.out.println("Failed to load customers: " + e.getMessage());
+            journal.close();
+            return;
+        }
+        PersistenceScheduler persistence = new PersistenceScheduler(journal, SYNC_DELAY_MILLIS, SYNC_AFTER_OPS, CHECKPOINT_DELAY_MILLIS);
+        CustomerHttpServer http = startHttpServer(service, journal, persistence);
 
         boolean running = true;
         while (running) {
             printMenu();
-            int choice = input.readIntInRange("Choose an option: ", 0, 9);
+            int choice = input.readIntInRange("Choose an option: ", 0, 11);
             System.out.println();
             switch (choice) {
                 case 1:
-                    handleAddCustomer(input, service, storage);
+                    handleAddCustomer(input, service, journal, persistence);
                     break;
                 case 2:
                     handleViewAll(service);
@@ -32,26 +89,37 @@ public class Main {
                     handleSearch(input, service);
                     break;
                 case 4:
-                    handleEditCustomer(input, service, storage);
+                    handleEditCustomer(input, service, journal, persistence);
                     break;
                 case 5:
-                    handleDeleteCustomer(input, service, storage);
+                    handleDeleteCustomer(input, service, journal, persistence);
                     break;
                 case 6:
                     handleSort(input, service);
                     break;
                 case 7:
-                    handleReport(service);
+                    handleReport(input, service);
                     break;
                 case 8:
-                    storage.saveToFile(service.getAllCustomers());
+                    persistence.checkpointNow();
+                    System.out.println("Saving to " + storage.getFilePath() + " in the background.");
                     break;
                 case 9:
-                    handleLoad(input, service, storage);
+                    handleLoad(input, service, journal);
+                    break;
+                case 10:
+                    handleImport(input, service, journal, persistence);
+                    break;
+                case 11:
+                    System.out.println(Metrics.report());
                     break;
                 case 0:
+                    if (http != null) {
+                        http.close();
+                    }
+                    persistence.close();
                     if (input.readYesNo("Save before exit? (Y/N): ")) {
-                        storage.saveToFile(service.getAllCustomers());
+                        saveSnapshot(service, journal);
                     }
                     running = false;
                     break;
@@ -60,9 +128,101 @@ public class Main {
             }
             System.out.println();
         }
+        persistence.close();
+        journal.close();
         scanner.close();
     }
 
+    // -Dcustomers.httpPort serves the same customers over HTTP while the menu runs, with
+    // -Dcustomers.httpThreads request threads.
+    private static CustomerHttpServer startHttpServer(CustomerDirectory service, CustomerJournal journal,
+            PersistenceScheduler persistence) {
+        Integer port = Integer.getInteger("customers.httpPort");
+        if (port == null) {
+            return null;
+        }
+        try {
+            CustomerHttpServer http = new CustomerHttpServer(service, journal, persistence, new InetSocketAddress(port),
+                    Integer.getInteger("customers.httpThreads", HTTP_THREADS));
+            http.start();
+            System.out.println("Serving customers on http://localhost:" + http.port() + "/customers");
+            return http;
+        } catch (IOException e) {
+            System.out.println("Failed to start HTTP server: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Saves a point-in-time snapshot of the customers, so writers need not stop while it is written.
+    // The journal is sealed before the snapshot opens, so every change is either sealed and in the
+    // snapshot, or logged to the fresh journal the checkpoint keeps.
+    private static void saveSnapshot(CustomerDirectory service, CustomerJournal journal) {
+        journal.seal();
+        try (CustomerSnapshot snapshot = service.openSnapshot()) {
+            journal.checkpoint(snapshot, snapshot::find);
+        }
+    }
+
+    private static String journalPathFor(String dataFile) {
+        int dot = dataFile.lastIndexOf('.');
+        String base = dot > dataFile.lastIndexOf('/') ? dataFile.substring(0, dot) : dataFile;
+        return base + ".journal";
+    }
+
+    // With -Dcustomers.lazy=true the snapshot is mapped rather than read and the full load runs in
+    // the background, so browsing and lookups by id work straight away.
+    // -Dcustomers.trackReport=true keeps the report groups up to date as customers change.
+    // -Dcustomers.uniqueContacts=true refuses a phone or email that another customer already holds.
+    // -Dcustomers.shards=N splits the customers and the snapshot file by id into N shards that are
+    // loaded, saved and searched in parallel.
+    private static CustomerDirectory openService(CustomerJournal journal, IntFunction<Supplier<CustomerStore>> stores,
+            int shards, boolean lazy, boolean trackReport, boolean uniqueContacts) {
+        if (shards > 1) {
+            if (lazy) {
+                System.out.println("Sharded snapshots cannot be opened lazily; loading them in full.");
+            }
+            return new ShardedCustomerService(journal.load(), shards, stores, trackReport, uniqueContacts);
+        }
+        Supplier<CustomerStore> store = stores.apply(0);
+        LazySnapshot snapshot = lazy ? journal.openPreview() : null;
+        if (snapshot == null) {
+            return new CustomerService(journal.load(), store, trackReport, uniqueContacts);
+        }
+        CustomerService service = new CustomerService(Collections.emptyList(), store, trackReport, uniqueContacts);
+        service.loadInBackground(CustomerPreview.of(snapshot::find, snapshot, snapshot.size()), journal::load);
+        System.out.println("Opened " + snapshot.size() + " customers; finishing the load in the background.");
+        return service;
+    }
+
+    // -Dcustomers.store=columnar keeps customers in primitive columns; offheap also moves their
+    // strings out of the Java heap; disk keeps them in a scratch file behind a bounded cache, which
+    // the shards split between them. Returns the store factory for each shard index.
+    private static IntFunction<Supplier<CustomerStore>> storeFor(String name, int shards) {
+        switch (name) {
+            case "disk":
+                Path directory = Paths.get(System.getProperty("customers.diskDir", System.getProperty("java.io.tmpdir")));
+                int cacheSize = Math.max(1, Integer.getInteger("customers.cacheSize", DISK_CACHE_SIZE) / shards);
+                String requested = System.getProperty("customers.cachePolicy", "tinylfu");
+                if (!requested.equals("lru") && !requested.equals("tinylfu")) {
+                    System.out.println("Unknown cache policy '" + requested + "', using tinylfu.");
+                }
+                String policy = requested.equals("lru") ? "lru" : "tinylfu";
+                boolean writeBehind = !"through".equals(System.getProperty("customers.writeMode", "behind"));
+                // Each shard's cache is reported on its own line.
+                return shard -> () -> new DiskCustomerStore(directory,
+                        shards > 1 ? "customer-store-" + shard : "customer-store", cacheSize, policy, writeBehind);
+            case "columnar":
+                return shard -> ColumnarCustomerStore::new;
+            case "offheap":
+                return shard -> () -> new ColumnarCustomerStore(true);
+            case "objects":
+                return shard -> ObjectCustomerStore::new;
+            default:
+                System.out.println("Unknown store '" + name + "', using objects.");
+                return shard -> ObjectCustomerStore::new;
+        }
+    }
+
     private static void printMenu() {
         System.out.println("=== Customer Management System ===");
         System.out.println("1. Add customer");
@@ -71,38 +231,48 @@ public class Main {
         System.out.println("4. Edit customer");
         System.out.println("5. Delete customer");
         System.out.println("6. Sort customers");
-        System.out.println("7. Export report (total count)");
+        System.out.println("7. Customer report");
         System.out.println("8. Save to file");
         System.out.println("9. Load from file");
+        System.out.println("10. Import customers from CSV");
+        System.out.println("11. Performance metrics");
         System.out.println("0. Exit");
     }
 
-    private static void handleAddCustomer(InputHelper input, CustomerService service, FileStorage storage) {
+    private static void handleAddCustomer(InputHelper input, CustomerDirectory service, CustomerJournal journal,
+            PersistenceScheduler persistence) {
         String fullName = input.readNonEmptyString("Full name: ");
         String phone = input.readPhoneNumber("Phone (digits only): ");
         String email = input.readEmail("Email: ");
-        Customer customer = service.addCustomer(fullName, phone, email);
+        Customer customer;
+        try {
+            customer = service.addCustomer(fullName, phone, email, journal::logAdd);
+        } catch (DuplicateContactException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
         System.out.println("Customer added with ID: " + customer.getId());
-        storage.saveToFile(service.getAllCustomers());
+        persistence.markDirty();
     }
 
-    private static void handleViewAll(CustomerService service) {
-        List<Customer> customers = service.listCustomers();
-        if (customers.isEmpty()) {
+    private static void handleViewAll(CustomerDirectory service) {
+        int printed = printCustomers(service::openCursor);
+        if (printed == 0) {
             System.out.println("No customers found.");
             return;
         }
-        printCustomers(customers);
-        System.out.println("Total customers: " + customers.size());
+        System.out.println("Total customers: " + printed);
     }
 
-    private static void handleSearch(InputHelper input, CustomerService service) {
+    private static void handleSearch(InputHelper input, CustomerDirectory service) {
         System.out.println("Search by:");
         System.out.println("1. ID");
         System.out.println("2. Name");
         System.out.println("3. Phone");
+        System.out.println("4. Email");
+        System.out.println("5. Name (allow misspellings)");
         System.out.println("0. Back");
-        int choice = input.readIntInRange("Choose an option: ", 0, 3);
+        int choice = input.readIntInRange("Choose an option: ", 0, 5);
         if (choice == 0) {
             return;
         }
@@ -130,10 +300,28 @@ public class Main {
             } else {
                 printCustomers(results);
             }
+        } else if (choice == 4) {
+            String email = input.readEmail("Enter email: ");
+            List<Customer> results = service.findByEmail(email);
+            if (results.isEmpty()) {
+                System.out.println("No matching customers found.");
+            } else {
+                printCustomers(results);
+            }
+        } else if (choice == 5) {
+            String name = input.readNonEmptyString("Enter name: ");
+            List<Customer> results = service.searchByNameFuzzy(name, FUZZY_RESULTS);
+            if (results.isEmpty()) {
+                System.out.println("No matching customers found.");
+            } else {
+                System.out.println("Closest matches first:");
+                printCustomers(results);
+            }
         }
     }
 
-    private static void handleEditCustomer(InputHelper input, CustomerService service, FileStorage storage) {
+    private static void handleEditCustomer(InputHelper input, CustomerDirectory service, CustomerJournal journal,
+            PersistenceScheduler persistence) {
         int id = input.readInt("Enter customer ID to edit: ");
         Customer customer = service.findById(id);
         if (customer == null) {
@@ -146,14 +334,22 @@ public class Main {
         String newPhone = readOptionalPhone(input, customer.getPhone());
         String newEmail = readOptionalEmail(input, customer.getEmail());
 
-        boolean updated = service.updateCustomer(id, newName, newPhone, newEmail);
-        if (updated) {
+        Customer updated;
+        try {
+            // The service journals what it now holds; the copy fetched above may predate the edit.
+            updated = service.updateCustomer(id, newName, newPhone, newEmail, journal::logUpdate);
+        } catch (DuplicateContactException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        if (updated != null) {
             System.out.println("Customer updated.");
-            storage.saveToFile(service.getAllCustomers());
+            persistence.markDirty();
         }
     }
 
-    private static void handleDeleteCustomer(InputHelper input, CustomerService service, FileStorage storage) {
+    private static void handleDeleteCustomer(InputHelper input, CustomerDirectory service, CustomerJournal journal,
+            PersistenceScheduler persistence) {
         int id = input.readInt("Enter customer ID to delete: ");
         Customer customer = service.findById(id);
         if (customer == null) {
@@ -162,50 +358,88 @@ public class Main {
         }
         System.out.println("Found: " + customer);
         if (input.readYesNo("Are you sure you want to delete? (Y/N): ")) {
-            boolean deleted = service.deleteCustomer(id);
+            boolean deleted = service.deleteCustomer(id, journal::logDelete);
             if (deleted) {
                 System.out.println("Customer deleted.");
-                storage.saveToFile(service.getAllCustomers());
+                persistence.markDirty();
             }
         } else {
             System.out.println("Delete canceled.");
         }
     }
 
-    private static void handleSort(InputHelper input, CustomerService service) {
+    private static void handleSort(InputHelper input, CustomerDirectory service) {
         System.out.println("Sort by:");
         System.out.println("1. Name (A-Z)");
         System.out.println("2. Newest first");
         System.out.println("0. Back");
         int choice = input.readIntInRange("Choose an option: ", 0, 2);
         if (choice == 1) {
-            service.sortByName();
             System.out.println("Sorted by name.");
-            printCustomers(service.listCustomers());
+            printCustomers(service.listByName());
         } else if (choice == 2) {
-            service.sortByNewest();
             System.out.println("Sorted by newest.");
-            printCustomers(service.listCustomers());
+            printCustomers(service.listByNewest());
         }
     }
 
-    private static void handleReport(CustomerService service) {
-        int total = service.getTotalCustomers();
-        System.out.println("Total customers: " + total);
+    private static void handleReport(InputHelper input, CustomerDirectory service) {
+        CustomerReport report = service.report();
+        System.out.println(report);
+        if (!input.readYesNo("Export the full report to CSV? (Y/N): ")) {
+            return;
+        }
+        String path = input.readNonEmptyString("Report file: ");
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path))) {
+            report.writeCsv(writer);
+            System.out.println("Report written to " + path);
+        } catch (IOException e) {
+            System.out.println("Failed to export report: " + e.getMessage());
+        }
     }
 
-    private static void handleLoad(InputHelper input, CustomerService service, FileStorage storage) {
+    private static void handleLoad(InputHelper input, CustomerDirectory service, CustomerJournal journal) {
         if (!input.readYesNo("Loading will replace current customers. Continue? (Y/N): ")) {
             return;
         }
-        List<Customer> loaded = storage.loadFromFile();
+        List<Customer> loaded;
+        try {
+            loaded = journal.load();
+        } catch (IllegalStateException e) {
+            System.out.println("Failed to load customers: " + e.getMessage());
+            return;
+        }
         service.replaceCustomers(loaded);
     }
 
-    private static void printCustomers(List<Customer> customers) {
+    // Each imported batch is journaled with one write, so a failure part way keeps the batches
+    // that were already committed.
+    private static void handleImport(InputHelper input, CustomerDirectory service, CustomerJournal journal,
+            PersistenceScheduler persistence) {
+        String path = input.readNonEmptyString("CSV file to import: ");
+        long started = System.nanoTime();
+        try (CsvImportReader reader = new CsvImportReader(Files.newInputStream(Paths.get(path)), IMPORT_BATCH_SIZE)) {
+            ImportResult result = service.importCustomers(reader, batch -> {
+                journal.logAdds(batch);
+                persistence.markDirty(batch.size());
+            });
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            System.out.println(result + " in " + millis + " ms.");
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Failed to import customers: " + e.getMessage());
+        }
+    }
+
+    // Writes through one buffered writer instead of a println per customer; returns the row count.
+    private static int printCustomers(Iterable<Customer> customers) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        int printed = 0;
         for (Customer customer : customers) {
-            System.out.println(customer);
+            out.println(customer);
+            printed++;
         }
+        out.flush();
+        return printed;
     }
 
     private static String readOptionalName(InputHelper input, String currentValue) {
@@ -229,7 +463,7 @@ public class Main {
                 return null;
             }
             String trimmed = raw.trim();
-            if (trimmed.matches("\\d+")) {
+            if (Validation.isValidPhone(trimmed)) {
                 return trimmed;
             }
             System.out.println("Phone must contain digits only.");
@@ -243,7 +477,7 @@ public class Main {
                 return null;
             }
             String trimmed = raw.trim();
-            if (trimmed.contains("@") && !trimmed.startsWith("@") && !trimmed.endsWith("@")) {
+            if (Validation.isValidEmail(trimmed)) {
                 return trimmed;
             }
             System.out.println("Email must contain '@'.");
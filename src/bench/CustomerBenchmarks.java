@@ -0,0 +1,186 @@
+package bench;
+
+import model.Customer;
+import service.ColumnarCustomerStore;
+import service.CustomerService;
+import service.CustomerStore;
+import service.ObjectCustomerStore;
+import service.ShardedCustomerService;
+import storage.FileStorage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+// Usage: java -cp out bench.CustomerBenchmarks [size ...]
+// Sizes default to 10000 and 1000000. Each benchmark is warmed up and then timed for
+// -Dbench.seconds (default 2); allocation is read from the thread's allocation counter
+// and GC activity from the collector beans, like JMH's gc profiler. The store.* rows report the
+// heap plus direct memory each storage engine retains per customer in the bytes/op column.
+public class CustomerBenchmarks {
+    private static final int QUERY_COUNT = 4096;
+    private static final int SHARDS = 4;
+    private static final PrintStream CONSOLE = System.out;
+    private static final PrintStream SILENT = new PrintStream(OutputStream.nullOutputStream());
+    // Results are published here so the JIT cannot drop the benchmarked calls as dead code.
+    private static volatile Object sink;
+
+    private final double seconds = Double.parseDouble(System.getProperty("bench.seconds", "2"));
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length == 0 ? new int[]{10_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i].replace("_", ""));
+        }
+        CustomerBenchmarks benchmarks = new CustomerBenchmarks();
+        CONSOLE.printf("%-28s %10s %14s %14s %12s %8s%n", "benchmark", "size", "ops/s", "ns/op", "bytes/op", "gc/op");
+        for (int size : sizes) {
+            benchmarks.run(size);
+        }
+    }
+
+    private void run(int size) throws IOException {
+        DatasetGenerator generator = new DatasetGenerator(42);
+        List<Customer> dataset = generator.customers(size);
+        CustomerService service = new CustomerService(dataset);
+        footprint("store.objects", size, ObjectCustomerStore::new);
+        footprint("store.columnar", size, ColumnarCustomerStore::new);
+        footprint("store.offheap", size, () -> new ColumnarCustomerStore(true));
+
+        int[] ids = new int[QUERY_COUNT];
+        String[] names = new String[QUERY_COUNT];
+        String[] phones = new String[QUERY_COUNT];
+        Random random = new Random(7);
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            Customer customer = dataset.get(random.nextInt(size));
+            ids[i] = customer.getId();
+            names[i] = customer.getFullName().substring(0, Math.min(6, customer.getFullName().length()));
+            phones[i] = customer.getPhone().substring(3, 8);
+        }
+        int[] cursor = new int[1];
+
+        measure("findById", size, () -> sink = service.findById(ids[cursor[0]++ & (QUERY_COUNT - 1)]));
+        measure("searchByName", size, () -> sink = service.searchByName(names[cursor[0]++ & (QUERY_COUNT - 1)]));
+        measure("searchByPhone", size, () -> sink = service.searchByPhone(phones[cursor[0]++ & (QUERY_COUNT - 1)]));
+        measure("listByName", size, () -> sink = service.listByName());
+        measure("listByNewest", size, () -> sink = service.listByNewest());
+        measure("Customer.toCsvLine", size, () -> sink = dataset.get(cursor[0]++ % size).toCsvLine());
+
+        CustomerService growing = new CustomerService(dataset);
+        measure("addCustomer", size, () -> sink = growing.addCustomer("Bench Customer", "5551234567", "bench@example.org",
+                customer -> { }));
+
+        ShardedCustomerService sharded = new ShardedCustomerService(dataset, SHARDS, shard -> ObjectCustomerStore::new, false, false);
+        measure("sharded.searchByName", size, () -> sink = sharded.searchByName(names[cursor[0]++ & (QUERY_COUNT - 1)]));
+        measure("sharded.listByName", size, () -> sink = sharded.listByName());
+        measure("sharded.report", size, () -> sink = sharded.report());
+
+        Path directory = Files.createTempDirectory("customer-bench");
+        for (String extension : new String[]{"csv", "bin"}) {
+            FileStorage storage = new FileStorage(directory.resolve("customers." + extension).toString());
+            measure("saveToFile." + extension, size, () -> storage.saveToFile(dataset));
+            measure("loadFromFile." + extension, size, () -> sink = storage.loadFromFile());
+            Files.deleteIfExists(directory.resolve("customers." + extension));
+        }
+        FileStorage shardedStorage = new FileStorage(directory.resolve("customers.csv").toString(), SHARDS);
+        measure("saveToFile.csv.sharded", size, () -> shardedStorage.saveToFile(dataset));
+        measure("loadFromFile.csv.sharded", size, () -> sink = shardedStorage.loadFromFile());
+        for (int i = 0; i < SHARDS; i++) {
+            Files.deleteIfExists(directory.resolve("customers-" + i + "-of-" + SHARDS + ".csv"));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private void measure(String name, int size, Runnable operation) {
+        System.setOut(SILENT);
+        try {
+            iterate(operation, seconds / 2);
+            long threadId = Thread.currentThread().getId();
+            long gcBefore = gcCount();
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long started = System.nanoTime();
+            long operations = iterate(operation, seconds);
+            long elapsed = System.nanoTime() - started;
+            long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            long collections = gcCount() - gcBefore;
+            System.setOut(CONSOLE);
+            CONSOLE.printf("%-28s %10d %14.1f %14.1f %12d %8.3f%n", name, size,
+                    operations * 1e9 / elapsed, (double) elapsed / operations,
+                    allocated / operations, (double) collections / operations);
+        } finally {
+            System.setOut(CONSOLE);
+        }
+    }
+
+    // Fills a store from a freshly generated dataset so the store is the only thing holding the
+    // customers, then reports the memory that is released when the store is dropped.
+    private static void footprint(String name, int size, Supplier<CustomerStore> factory) {
+        CustomerStore store = fill(factory.get(), size);
+        sink = store;
+        long withStore = retainedBytes();
+        sink = null;
+        store = null;
+        long retained = withStore - retainedBytes();
+        CONSOLE.printf("%-28s %10d %14s %14s %12d %8s%n", name, size, "-", "-", retained / size, "-");
+    }
+
+    private static CustomerStore fill(CustomerStore store, int size) {
+        for (Customer customer : new DatasetGenerator(42).customers(size)) {
+            store.append(customer);
+        }
+        return store;
+    }
+
+    private static long retainedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+
+    // Runs the operation in batches, doubling them while they are short, until the time budget
+    // is spent, and returns the number of operations.
+    private static long iterate(Runnable operation, double budgetSeconds) {
+        long deadline = System.nanoTime() + (long) (budgetSeconds * 1e9);
+        long operations = 0;
+        int batch = 1;
+        long now = System.nanoTime();
+        while (now < deadline) {
+            long batchStarted = now;
+            for (int i = 0; i < batch; i++) {
+                operation.run();
+            }
+            operations += batch;
+            now = System.nanoTime();
+            if (now - batchStarted < 10_000_000L) {
+                batch = Math.min(batch * 2, 1 << 16);
+            }
+        }
+        return operations;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import model.Customer;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DatasetGenerator {
+    private static final String[] FIRST_NAMES = {
+            "Ardalan", "Sara", "James", "Maria", "Wei", "Fatima", "Liam", "Olivia", "Noah", "Emma",
+            "Mohammed", "Sofia", "Lucas", "Mia", "Hiro", "Amara", "Mateo", "Chloe", "Ivan", "Zara"
+    };
+    private static final String[] LAST_NAMES = {
+            "Janpour", "Smith", "Garcia", "Chen", "Khan", "Muller", "Rossi", "Nguyen", "Silva", "Kim",
+            "Johnson", "Brown", "Lopez", "Ivanova", "Sato", "Okafor", "Haddad", "Novak", "Dubois", "Walker"
+    };
+    private static final String[] DOMAINS = {
+            "gmail.com", "yahoo.com", "outlook.com", "icloud.com", "proton.me", "example.org"
+    };
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2018, 1, 1, 0, 0);
+
+    private final Random random;
+
+    public DatasetGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public List<Customer> customers(int count) {
+        List<Customer> customers = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            customers.add(new Customer(id, fullName(), phone(), email(id), createdAt()));
+        }
+        return customers;
+    }
+
+    public String fullName() {
+        return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+    }
+
+    public String phone() {
+        return String.valueOf(2_000_000_000L + (long) (random.nextDouble() * 7_999_999_999L));
+    }
+
+    public String email(int id) {
+        return "user" + id + "@" + DOMAINS[random.nextInt(DOMAINS.length)];
+    }
+
+    public LocalDateTime createdAt() {
+        return EPOCH.plusSeconds(random.nextInt(8 * 365 * 24 * 3600)).plusNanos(random.nextInt(1_000_000) * 1000L);
+    }
+}
@@ -0,0 +1,241 @@
+package bench;
+
+import server.CustomerHttpServer;
+import service.CustomerService;
+import util.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// Usage: java -cp out bench.HttpLoadGenerator [base url]
+// Drives the HTTP front-end with -Dbench.clients (default 32) closed-loop clients for
+// -Dbench.seconds (default 10) after -Dbench.warmup seconds (default 3), and reports throughput and
+// latency percentiles per request type. Without a url it starts a server on a free localhost port
+// over -Dbench.size (default 100000) generated customers. Against another server the ids and phones
+// used come from its first page of customers, and the adds and updates change its data.
+public class HttpLoadGenerator {
+    private static final int SAMPLE_PAGE = 2000;
+    private static final int LIST_PAGE = 20;
+    private static final int SERVER_THREADS = 64;
+
+    private enum Request {
+        GET(70), SEARCH_PHONE(10), SEARCH_NAME(5), LIST_PAGE(5), ADD(5), UPDATE(5);
+
+        private final int weight;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        Request(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final int[] ids;
+    private final String[] phones;
+    private final String[] names;
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    private HttpLoadGenerator(HttpClient client, String baseUrl, int[] ids, String[] phones, String[] names) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.ids = ids;
+        this.phones = phones;
+        this.names = names;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients = Integer.getInteger("bench.clients", 32);
+        double seconds = Double.parseDouble(System.getProperty("bench.seconds", "10"));
+        double warmup = Double.parseDouble(System.getProperty("bench.warmup", "3"));
+        CustomerHttpServer server = null;
+        String baseUrl;
+        if (args.length > 0) {
+            baseUrl = args[0].endsWith("/") ? args[0].substring(0, args[0].length() - 1) : args[0];
+        } else {
+            int size = Integer.getInteger("bench.size", 100_000);
+            CustomerService service = new CustomerService(new DatasetGenerator(42).customers(size));
+            server = new CustomerHttpServer(service, null, null,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), SERVER_THREADS);
+            server.start();
+            baseUrl = "http://localhost:" + server.port();
+            System.out.println("Serving " + size + " customers on " + baseUrl);
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        HttpLoadGenerator generator = sample(client, baseUrl);
+        try {
+            generator.run(clients, warmup, seconds);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    // Reads the first page of customers for ids, phones and name prefixes to ask for.
+    private static HttpLoadGenerator sample(HttpClient client, String baseUrl) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/customers?limit=" + SAMPLE_PAGE)).build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Listing customers failed with status " + response.statusCode());
+        }
+        List<String> idValues = fieldValues(response.body(), "\"id\":");
+        List<String> phoneValues = fieldValues(response.body(), "\"phone\":\"");
+        List<String> nameValues = fieldValues(response.body(), "\"fullName\":\"");
+        if (idValues.isEmpty()) {
+            throw new IOException("The server has no customers to load test against");
+        }
+        int[] ids = idValues.stream().mapToInt(Integer::parseInt).toArray();
+        String[] names = nameValues.stream()
+                .map(name -> URLEncoder.encode(name.substring(0, Math.min(name.length(), 4)), StandardCharsets.UTF_8))
+                .toArray(String[]::new);
+        return new HttpLoadGenerator(client, baseUrl, ids, phoneValues.toArray(new String[0]), names);
+    }
+
+    private static List<String> fieldValues(String json, String marker) {
+        List<String> values = new ArrayList<>();
+        int at = json.indexOf(marker);
+        while (at >= 0) {
+            int start = at + marker.length();
+            int end = start;
+            while (end < json.length() && json.charAt(end) != '"' && json.charAt(end) != ',' && json.charAt(end) != '}') {
+                end++;
+            }
+            values.add(json.substring(start, end));
+            at = json.indexOf(marker, end);
+        }
+        return values;
+    }
+
+    private void run(int clients, double warmupSeconds, double seconds) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(this::drive, "load-client-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep((long) (warmupSeconds * 1000));
+        recording = true;
+        long started = System.nanoTime();
+        Thread.sleep((long) (seconds * 1000));
+        recording = false;
+        long elapsed = System.nanoTime() - started;
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(clients, elapsed);
+    }
+
+    // One closed-loop client: sends a request, waits for the whole response, then sends the next.
+    private void drive() {
+        int totalWeight = 0;
+        for (Request request : Request.values()) {
+            totalWeight += request.weight;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            int pick = random.nextInt(totalWeight);
+            Request type = Request.GET;
+            for (Request request : Request.values()) {
+                if (pick < request.weight) {
+                    type = request;
+                    break;
+                }
+                pick -= request.weight;
+            }
+            HttpRequest request = build(type, random);
+            long started = System.nanoTime();
+            boolean failed;
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                failed = response.statusCode() >= 400 && response.statusCode() != 404;
+            } catch (IOException e) {
+                failed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long nanos = System.nanoTime() - started;
+            if (recording) {
+                type.latency.record(nanos);
+                if (failed) {
+                    type.errors.increment();
+                }
+            }
+        }
+    }
+
+    private HttpRequest build(Request type, ThreadLocalRandom random) {
+        switch (type) {
+            case SEARCH_PHONE:
+                return get("/customers/search?phone=" + phones[random.nextInt(phones.length)]);
+            case SEARCH_NAME:
+                return get("/customers/search?name=" + names[random.nextInt(names.length)]);
+            case LIST_PAGE:
+                return get("/customers?offset=" + random.nextInt(SAMPLE_PAGE) + "&limit=" + LIST_PAGE);
+            case ADD:
+                long phone = 2_000_000_000L + random.nextLong(7_999_999_999L);
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/customers"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"fullName\":\"Load Test\",\"phone\":\"" + phone
+                                + "\",\"email\":\"load" + phone + "@example.org\"}"))
+                        .build();
+            case UPDATE:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/customers/" + ids[random.nextInt(ids.length)]))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"email\":\"updated" + random.nextInt(1_000_000)
+                                + "@example.org\"}"))
+                        .build();
+            default:
+                return get("/customers/" + ids[random.nextInt(ids.length)]);
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+    }
+
+    private static void report(int clients, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "%d clients for %.1f s%n", clients, seconds);
+        System.out.printf(Locale.ROOT, "%-14s %10s %10s %10s %10s %10s %10s %8s%n",
+                "request", "count", "req/s", "mean us", "p50 us", "p99 us", "max us", "errors");
+        LatencyHistogram all = new LatencyHistogram();
+        long count = 0;
+        long errors = 0;
+        for (Request request : Request.values()) {
+            LatencyHistogram latency = request.latency;
+            count += latency.count();
+            errors += request.errors.sum();
+            System.out.printf(Locale.ROOT, "%-14s %10d %10.0f %10.0f %10d %10d %10d %8d%n",
+                    request.name().toLowerCase(Locale.ROOT), latency.count(), latency.count() / seconds,
+                    latency.meanNanos() / 1000, latency.percentileNanos(50) / 1000, latency.percentileNanos(99) / 1000,
+                    latency.maxNanos() / 1000, request.errors.sum());
+            all.merge(latency);
+        }
+        System.out.printf(Locale.ROOT, "%-14s %10d %10.0f %10.0f %10d %10d %10d %8d%n",
+                "total", count, count / seconds, all.meanNanos() / 1000, all.percentileNanos(50) / 1000,
+                all.percentileNanos(99) / 1000, all.maxNanos() / 1000, errors);
+    }
+}
@@ -1,30 +1,76 @@
 package model;
 
+import util.StringDictionary;
+
+import java.time.DateTimeException;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
+// Kept compact because millions of these stay in memory: the creation time is an epoch second and
+// nano instead of a LocalDateTime, a phone of up to 18 digits is packed into a long, and names come
+// out of a dictionary that holds a repeated name once. The getters rebuild exactly the values the
+// customer was given. The email stays whole: the contact index keys on it, and can only share the
+// string if the customer holds it.
 public class Customer {
+    // Shared by every customer. Loaders look names up here straight from their read buffers.
+    public static final StringDictionary NAMES = new StringDictionary(1 << 16);
+
+    private static final long NO_PHONE = 0;
+    private static final long TEXT_PHONE = -1;
+    private static final int MAX_PACKED_DIGITS = 18;
+    private static final long[] POWERS_OF_TEN = new long[MAX_PACKED_DIGITS + 1];
+    private static final int NO_TIMESTAMP = -1;
+    private static final long MIN_SECOND = LocalDateTime.MIN.toEpochSecond(ZoneOffset.UTC);
+    private static final long MAX_SECOND = LocalDateTime.MAX.toEpochSecond(ZoneOffset.UTC);
+
     private final int id;
-    private String fullName;
-    private String phone;
-    private String email;
-    private final LocalDateTime createdAt;
+    // Volatile so threads reading a customer without the service lock see the latest edit.
+    private volatile String fullName;
+    // See packPhone. phoneText is written before phoneDigits is set to TEXT_PHONE and is not
+    // cleared when a later edit packs the phone, so a reader that saw TEXT_PHONE always finds text.
+    private volatile long phoneDigits;
+    private volatile String phoneText;
+    private volatile String email;
+    private final long createdSecond;
+    private final int createdNano;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
 
     private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
     public static final DateTimeFormatter CSV_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
     public Customer(int id, String fullName, String phone, String email, LocalDateTime createdAt) {
-        this.id = id;
-        this.fullName = fullName;
-        this.phone = phone;
-        this.email = email;
-        this.createdAt = createdAt;
+        this(id, fullName, phone, email, createdAt == null ? 0 : createdAt.toEpochSecond(ZoneOffset.UTC),
+                createdAt == null ? NO_TIMESTAMP : createdAt.getNano());
     }
 
     public Customer(int id, String fullName, String phone, String email) {
         this(id, fullName, phone, email, LocalDateTime.now());
     }
 
+    // The creation time as LocalDateTime.toEpochSecond(ZoneOffset.UTC) and getNano() give it, with
+    // createdNano -1 for none. The text can be any CharSequence, e.g. a reused view of a loader's
+    // buffer; only the parts the customer keeps are copied out of it.
+    public Customer(int id, CharSequence fullName, CharSequence phone, CharSequence email,
+                    long createdEpochSecond, int createdNano) {
+        if (createdNano != NO_TIMESTAMP && (createdNano < 0 || createdNano > 999_999_999
+                || createdEpochSecond < MIN_SECOND || createdEpochSecond > MAX_SECOND)) {
+            throw new DateTimeException("Invalid creation time: " + createdEpochSecond + "s " + createdNano + "ns");
+        }
+        this.id = id;
+        this.fullName = fullName == null ? null : NAMES.intern(fullName, 0, fullName.length());
+        writePhone(phone);
+        this.email = email == null ? null : email.toString();
+        this.createdSecond = createdEpochSecond;
+        this.createdNano = createdNano;
+    }
+
     public int getId() {
         return id;
     }
@@ -34,15 +80,16 @@ public class Customer {
     }
 
     public void setFullName(String fullName) {
-        this.fullName = fullName;
+        this.fullName = NAMES.intern(fullName);
     }
 
     public String getPhone() {
-        return phone;
+        long digits = phoneDigits;
+        return digits == TEXT_PHONE ? phoneText : unpackPhone(digits);
     }
 
     public void setPhone(String phone) {
-        this.phone = phone;
+        writePhone(phone);
     }
 
     public String getEmail() {
@@ -54,15 +101,77 @@ public class Customer {
     }
 
     public LocalDateTime getCreatedAt() {
-        return createdAt;
+        return createdNano == NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(createdSecond, createdNano, ZoneOffset.UTC);
+    }
+
+    // The creation time without building a LocalDateTime; getCreatedNano() is -1 when there is none.
+    public long getCreatedEpochSecond() {
+        return createdSecond;
+    }
+
+    public int getCreatedNano() {
+        return createdNano;
     }
 
     public String getCreatedAtFormatted() {
-        return createdAt.format(DISPLAY_FORMAT);
+        return getCreatedAt().format(DISPLAY_FORMAT);
     }
 
     public String toCsvLine() {
-        return id + "," + escapeCsv(fullName) + "," + escapeCsv(phone) + "," + escapeCsv(email) + "," + createdAt.format(CSV_FORMAT);
+        return id + "," + escapeCsv(fullName) + "," + escapeCsv(getPhone()) + "," + escapeCsv(email) + ","
+                + getCreatedAt().format(CSV_FORMAT);
+    }
+
+    private void writePhone(CharSequence phone) {
+        long digits = packPhone(phone);
+        if (digits == TEXT_PHONE) {
+            phoneText = phone.toString();
+        }
+        phoneDigits = digits;
+    }
+
+    // A phone of up to 18 digits as a long: its digits behind a leading 1, so leading zeros survive
+    // and every such phone gets a distinct positive value. NO_PHONE (0) for null and TEXT_PHONE (-1)
+    // for anything else.
+    public static long packPhone(CharSequence phone) {
+        if (phone == null) {
+            return NO_PHONE;
+        }
+        int length = phone.length();
+        if (length > MAX_PACKED_DIGITS) {
+            return TEXT_PHONE;
+        }
+        long packed = 1;
+        for (int i = 0; i < length; i++) {
+            char ch = phone.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return TEXT_PHONE;
+            }
+            packed = packed * 10 + (ch - '0');
+        }
+        return packed;
+    }
+
+    // The phone packPhone packed; null for NO_PHONE. Not for TEXT_PHONE, which keeps no digits.
+    public static String unpackPhone(long packed) {
+        if (packed == NO_PHONE) {
+            return null;
+        }
+        int length = 0;
+        while (length < MAX_PACKED_DIGITS && packed >= POWERS_OF_TEN[length + 1]) {
+            length++;
+        }
+        long number = packed - POWERS_OF_TEN[length];
+        if (length > 0 && number >= POWERS_OF_TEN[length - 1]) {
+            // No leading zero, so the number prints as the phone without a scratch buffer.
+            return Long.toString(number);
+        }
+        char[] digits = new char[MAX_PACKED_DIGITS];
+        int start = digits.length;
+        for (long rest = packed; rest >= 10; rest /= 10) {
+            digits[--start] = (char) ('0' + rest % 10);
+        }
+        return new String(digits, start, digits.length - start);
     }
 
     private static String escapeCsv(String value) {
@@ -79,6 +188,7 @@ public class Customer {
 
     @Override
     public String toString() {
-        return "ID: " + id + " | Name: " + fullName + " | Phone: " + phone + " | Email: " + email + " | Created: " + getCreatedAtFormatted();
+        return "ID: " + id + " | Name: " + fullName + " | Phone: " + getPhone() + " | Email: " + email
+                + " | Created: " + getCreatedAtFormatted();
     }
 }
@@ -0,0 +1,42 @@
+package model;
+
+import java.time.LocalDateTime;
+
+// A customer that has not been given an id yet, as read from an import file. Fields are kept as
+// read; createdAt is null when the source did not carry one.
+public class CustomerDraft {
+    private final String fullName;
+    private final String phone;
+    private final String email;
+    private final LocalDateTime createdAt;
+
+    public CustomerDraft(String fullName, String phone, String email, LocalDateTime createdAt) {
+        this.fullName = fullName;
+        this.phone = phone;
+        this.email = email;
+        this.createdAt = createdAt;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    // The customer this draft becomes under the given id, created now unless it carries a time.
+    public Customer toCustomer(int id) {
+        return createdAt == null
+                ? new Customer(id, fullName, phone, email)
+                : new Customer(id, fullName, phone, email, createdAt);
+    }
+}
@@ -0,0 +1,367 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import model.Customer;
+import service.CustomerDirectory;
+import service.DuplicateContactException;
+import storage.CustomerJournal;
+import storage.PersistenceScheduler;
+import util.Validation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the customer service over HTTP with JSON bodies:
+//   GET    /customers?offset=&limit=        list in store order (id order when sharded), all by default
+//   POST   /customers                       add {"fullName", "phone", "email"}
+//   GET    /customers/search?name=|phone=   search by name or phone digits
+//          /customers/search?email=|exactPhone=  exact email (any case) or whole phone
+//          /customers/search?fuzzy=&limit=  names spelled or sounding alike, best first
+//   GET    /customers/{id}                  one customer
+//   PUT    /customers/{id}                  change any of fullName, phone and email
+//   DELETE /customers/{id}                  delete
+// Each request runs on its own pooled thread and blocks on the service as the console does, so a
+// slow client only ties up its own thread. List and search results are written to the response as
+// they are produced, with chunked encoding, rather than built up as one string. Changes are
+// journaled and marked dirty exactly as the console's are.
+public class CustomerHttpServer implements AutoCloseable {
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int RESPONSE_BUFFER_CHARS = 8192;
+    private static final int STOP_DELAY_SECONDS = 1;
+    private static final int FUZZY_LIMIT = 20;
+    private static final String COLLECTION = "/customers";
+
+    private final CustomerDirectory service;
+    private final CustomerJournal journal;
+    private final PersistenceScheduler persistence;
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    // journal and persistence may both be null to serve without persisting, as the load
+    // generator does. Port 0 picks a free port; see port().
+    public CustomerHttpServer(CustomerDirectory service, CustomerJournal journal, PersistenceScheduler persistence,
+            InetSocketAddress address, int threads) throws IOException {
+        this.service = service;
+        this.journal = journal;
+        this.persistence = persistence;
+        // Without TCP_NODELAY small responses wait out the client's delayed ACK, about 40 ms each.
+        // The JDK server reads this once, when the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(address, 0);
+        AtomicInteger created = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "customer-http-" + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(workers);
+        server.createContext(COLLECTION, this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY_SECONDS);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            // The context matches any path starting with /customers, /customersX included.
+            String rest = path.startsWith(COLLECTION + "/") ? path.substring(COLLECTION.length() + 1) : null;
+            try {
+                if (path.equals(COLLECTION)) {
+                    if (method.equals("GET")) {
+                        list(exchange);
+                    } else if (method.equals("POST")) {
+                        add(exchange);
+                    } else {
+                        sendError(exchange, 405, "Use GET or POST on /customers");
+                    }
+                } else if (rest == null) {
+                    sendError(exchange, 404, "No such resource: " + path);
+                } else if (rest.equals("search")) {
+                    if (method.equals("GET")) {
+                        search(exchange);
+                    } else {
+                        sendError(exchange, 405, "Use GET on /customers/search");
+                    }
+                } else {
+                    int id = parseId(rest);
+                    if (id < 0) {
+                        sendError(exchange, 404, "No such resource: " + path);
+                    } else if (method.equals("GET")) {
+                        get(exchange, id);
+                    } else if (method.equals("PUT")) {
+                        update(exchange, id);
+                    } else if (method.equals("DELETE")) {
+                        delete(exchange, id);
+                    } else {
+                        sendError(exchange, 405, "Use GET, PUT or DELETE on /customers/{id}");
+                    }
+                }
+            } catch (DuplicateContactException e) {
+                sendFailure(exchange, 409, e.getMessage());
+            } catch (IllegalArgumentException e) {
+                sendFailure(exchange, 400, e.getMessage());
+            } catch (RuntimeException e) {
+                System.out.println("Failed to handle " + method + " " + path + ": " + e.getMessage());
+                sendFailure(exchange, 500, "Internal error");
+            }
+        }
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange);
+        int offset = intParameter(query, "offset", 0);
+        int limit = intParameter(query, "limit", Integer.MAX_VALUE);
+        Iterator<Customer> cursor = service.openCursor();
+        for (int skipped = 0; skipped < offset && cursor.hasNext(); skipped++) {
+            cursor.next();
+        }
+        streamCustomers(exchange, cursor, limit);
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange);
+        String name = query.get("name");
+        String phone = query.get("phone");
+        String email = query.get("email");
+        String exactPhone = query.get("exactPhone");
+        String fuzzy = query.get("fuzzy");
+        List<Customer> results;
+        if (name != null && !name.trim().isEmpty()) {
+            results = service.searchByName(name.trim());
+        } else if (phone != null && Validation.isValidPhone(phone)) {
+            results = service.searchByPhone(phone);
+        } else if (email != null && !email.trim().isEmpty()) {
+            results = service.findByEmail(email.trim());
+        } else if (exactPhone != null && Validation.isValidPhone(exactPhone)) {
+            results = service.findByPhoneExact(exactPhone);
+        } else if (fuzzy != null && !fuzzy.trim().isEmpty()) {
+            results = service.searchByNameFuzzy(fuzzy, intParameter(query, "limit", FUZZY_LIMIT));
+        } else {
+            throw new IllegalArgumentException("Search needs a name, an email, or a phone of digits only");
+        }
+        streamCustomers(exchange, results.iterator(), Integer.MAX_VALUE);
+    }
+
+    private void get(HttpExchange exchange, int id) throws IOException {
+        Customer customer = service.findById(id);
+        if (customer == null) {
+            sendError(exchange, 404, "Customer not found");
+        } else {
+            sendCustomer(exchange, 200, customer);
+        }
+    }
+
+    private void add(HttpExchange exchange) throws IOException {
+        Map<String, String> fields = readBody(exchange);
+        String fullName = fields.get("fullName");
+        String phone = fields.get("phone");
+        String email = fields.get("email");
+        if (!Validation.isValidName(fullName)) {
+            throw new IllegalArgumentException("Name cannot be empty.");
+        }
+        if (!Validation.isValidPhone(phone)) {
+            throw new IllegalArgumentException("Phone must contain digits only.");
+        }
+        if (!Validation.isValidEmail(email)) {
+            throw new IllegalArgumentException("Email must contain '@'.");
+        }
+        Customer customer = service.addCustomer(fullName.trim(), phone, email.trim(), this::logAdd);
+        markDirty();
+        sendCustomer(exchange, 201, customer);
+    }
+
+    // Fields left out or null keep their current value, like a blank answer at the console prompt.
+    private void update(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> fields = readBody(exchange);
+        String fullName = fields.get("fullName");
+        String phone = fields.get("phone");
+        String email = fields.get("email");
+        if (fullName != null && !Validation.isValidName(fullName)) {
+            throw new IllegalArgumentException("Name cannot be empty.");
+        }
+        if (phone != null && !Validation.isValidPhone(phone)) {
+            throw new IllegalArgumentException("Phone must contain digits only.");
+        }
+        if (email != null && !Validation.isValidEmail(email)) {
+            throw new IllegalArgumentException("Email must contain '@'.");
+        }
+        Customer updated = service.updateCustomer(id, fullName == null ? null : fullName.trim(), phone,
+                email == null ? null : email.trim(), this::logUpdate);
+        if (updated == null) {
+            sendError(exchange, 404, "Customer not found");
+            return;
+        }
+        markDirty();
+        sendCustomer(exchange, 200, updated);
+    }
+
+    private void delete(HttpExchange exchange, int id) throws IOException {
+        if (!service.deleteCustomer(id, this::logDelete)) {
+            sendError(exchange, 404, "Customer not found");
+            return;
+        }
+        markDirty();
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    // Called by the service under its write lock, so entries are journaled in the order applied.
+    private void logAdd(Customer customer) {
+        if (journal != null) {
+            journal.logAdd(customer);
+        }
+    }
+
+    private void logUpdate(Customer customer) {
+        if (journal != null) {
+            journal.logUpdate(customer);
+        }
+    }
+
+    private void logDelete(int id) {
+        if (journal != null) {
+            journal.logDelete(id);
+        }
+    }
+
+    private void markDirty() {
+        if (persistence != null) {
+            persistence.markDirty();
+        }
+    }
+
+    // Sends a JSON array of up to limit customers, encoding each straight into the response.
+    private static void streamCustomers(HttpExchange exchange, Iterator<Customer> customers, int limit) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8),
+                RESPONSE_BUFFER_CHARS);
+        out.write('[');
+        for (int written = 0; written < limit && customers.hasNext(); written++) {
+            if (written > 0) {
+                out.write(',');
+            }
+            Json.writeCustomer(out, customers.next());
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    private static void sendCustomer(HttpExchange exchange, int status, Customer customer) throws IOException {
+        StringWriter body = new StringWriter();
+        Json.writeCustomer(body, customer);
+        send(exchange, status, body.toString());
+    }
+
+    // Reports a request that failed part way. Once a streamed response has sent its headers there is
+    // no status left to change, so the exchange is only closed and the client sees a cut-off body.
+    private static void sendFailure(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendError(exchange, status, message);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringWriter body = new StringWriter();
+        body.write("{\"error\":");
+        Json.writeString(body, message);
+        body.write('}');
+        send(exchange, status, body.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static int intParameter(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new IllegalArgumentException(name + " cannot be negative");
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    // Returns the id in a /customers/{id} path, or -1 when it is not one.
+    private static int parseId(String segment) {
+        if (segment.isEmpty() || !Character.isDigit(segment.charAt(0))) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
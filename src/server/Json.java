@@ -0,0 +1,198 @@
+package server;
+
+import model.Customer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Just enough JSON for the HTTP API: customers and messages are written straight to the response
+// writer, and request bodies are flat objects whose values are strings or null.
+final class Json {
+    private Json() {
+    }
+
+    static void writeCustomer(Writer out, Customer customer) throws IOException {
+        out.write("{\"id\":");
+        out.write(Integer.toString(customer.getId()));
+        out.write(",\"fullName\":");
+        writeString(out, customer.getFullName());
+        out.write(",\"phone\":");
+        writeString(out, customer.getPhone());
+        out.write(",\"email\":");
+        writeString(out, customer.getEmail());
+        out.write(",\"createdAt\":");
+        writeString(out, customer.getCreatedAt() == null ? null : customer.getCreatedAt().toString());
+        out.write('}');
+    }
+
+    static void writeString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        out.write(String.format("\\u%04x", (int) ch));
+                    } else {
+                        out.write(ch);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    // Parses {"key": "value", ...}. Numbers and booleans are kept as their text; nested values
+    // are rejected.
+    static Map<String, String> parseObject(String text) {
+        Parser parser = new Parser(text);
+        Map<String, String> fields = new HashMap<>();
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.position++;
+            parser.expectEnd();
+            return fields;
+        }
+        while (true) {
+            parser.skipWhitespace();
+            String key = parser.string();
+            parser.skipWhitespace();
+            parser.expect(':');
+            parser.skipWhitespace();
+            fields.put(key, parser.value());
+            parser.skipWhitespace();
+            char next = parser.next();
+            if (next == '}') {
+                parser.expectEnd();
+                return fields;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("Expected ',' or '}' at " + (parser.position - 1));
+            }
+        }
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int position;
+
+        private Parser(String text) {
+            this.text = text;
+        }
+
+        private char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return text.charAt(position);
+        }
+
+        private char next() {
+            char ch = peek();
+            position++;
+            return ch;
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at " + (position - 1));
+            }
+        }
+
+        private void expectEnd() {
+            skipWhitespace();
+            if (position != text.length()) {
+                throw new IllegalArgumentException("Unexpected content after JSON object");
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private String value() {
+            char ch = peek();
+            if (ch == '"') {
+                return string();
+            }
+            if (ch == '{' || ch == '[') {
+                throw new IllegalArgumentException("Nested values are not supported");
+            }
+            int start = position;
+            while (position < text.length() && ",} \t\r\n".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Expected a value at " + start);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char ch = next();
+                if (ch == '"') {
+                    return value.toString();
+                }
+                if (ch != '\\') {
+                    value.append(ch);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Truncated unicode escape");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+        }
+    }
+}
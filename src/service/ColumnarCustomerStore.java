@@ -0,0 +1,256 @@
+package service;
+
+import model.Customer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps customers in primitive columns instead of objects: the id and creation time sit in
+// int[]/long[] columns and the three strings are packed as UTF-8 into large byte chunks, which can
+// live off-heap. A customer takes about 60-70 bytes here against roughly 120 as objects, and the
+// collector only ever sees a handful of arrays. get() materializes a fresh Customer each time, so
+// the objects it returns are detached copies and editing them does not change the store.
+public class ColumnarCustomerStore implements CustomerStore {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_DELETED_BEFORE_COMPACT = 32;
+    private static final long DELETED = -1;
+
+    private final boolean offHeap;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    private int[] ids;
+    private long[] createdSeconds;
+    // -1 for a customer without a creation time, as Customer keeps it.
+    private int[] createdNanos;
+    // Chunk index in the high half, position in the low half; DELETED for an empty slot.
+    private long[] recordOffsets;
+    private int slots;
+    private int deletedSlots;
+    private long arenaBytes;
+    private long garbageBytes;
+
+    public ColumnarCustomerStore() {
+        this(false);
+    }
+
+    // With offHeap the string chunks are direct buffers outside the Java heap.
+    public ColumnarCustomerStore(boolean offHeap) {
+        this(offHeap, INITIAL_CAPACITY);
+    }
+
+    private ColumnarCustomerStore(boolean offHeap, int capacity) {
+        this.offHeap = offHeap;
+        capacity = Math.max(capacity, 16);
+        ids = new int[capacity];
+        createdSeconds = new long[capacity];
+        createdNanos = new int[capacity];
+        recordOffsets = new long[capacity];
+    }
+
+    @Override
+    public int slotCount() {
+        return slots;
+    }
+
+    @Override
+    public int liveCount() {
+        return slots - deletedSlots;
+    }
+
+    @Override
+    public int idAt(int slot) {
+        return ids[slot];
+    }
+
+    @Override
+    public Customer get(int slot) {
+        if (slot < 0 || slot >= slots) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of " + slots);
+        }
+        long offset = recordOffsets[slot];
+        if (offset == DELETED) {
+            return null;
+        }
+        ByteBuffer chunk = chunks.get((int) (offset >>> 32));
+        int[] cursor = {(int) offset};
+        String fullName = readString(chunk, cursor);
+        String phone = readString(chunk, cursor);
+        String email = readString(chunk, cursor);
+        return new Customer(ids[slot], fullName, phone, email, createdSeconds[slot], createdNanos[slot]);
+    }
+
+    @Override
+    public int append(Customer customer) {
+        if (slots == ids.length) {
+            grow();
+        }
+        int slot = slots++;
+        ids[slot] = customer.getId();
+        createdSeconds[slot] = customer.getCreatedEpochSecond();
+        createdNanos[slot] = customer.getCreatedNano();
+        recordOffsets[slot] = writeRecord(customer.getFullName(), customer.getPhone(), customer.getEmail());
+        return slot;
+    }
+
+    // The strings are rewritten as a new record at the end of the arena; the old one becomes
+    // garbage that the next compaction drops.
+    @Override
+    public void update(int slot, String fullName, String phone, String email) {
+        Customer current = get(slot);
+        if (current == null) {
+            return;
+        }
+        garbageBytes += recordLength(slot);
+        recordOffsets[slot] = writeRecord(
+                fullName != null ? fullName : current.getFullName(),
+                phone != null ? phone : current.getPhone(),
+                email != null ? email : current.getEmail());
+    }
+
+    @Override
+    public void delete(int slot) {
+        if (recordOffsets[slot] != DELETED) {
+            garbageBytes += recordLength(slot);
+            recordOffsets[slot] = DELETED;
+            deletedSlots++;
+        }
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        boolean manyHoles = deletedSlots >= MIN_DELETED_BEFORE_COMPACT && deletedSlots * 2 >= slots;
+        boolean mostlyGarbage = garbageBytes >= CHUNK_SIZE && garbageBytes * 2 >= arenaBytes;
+        return manyHoles || mostlyGarbage;
+    }
+
+    @Override
+    public CustomerStore compact() {
+        ColumnarCustomerStore compacted = new ColumnarCustomerStore(offHeap, liveCount());
+        for (int slot = 0; slot < slots; slot++) {
+            if (recordOffsets[slot] == DELETED) {
+                continue;
+            }
+            int target = compacted.slots++;
+            compacted.ids[target] = ids[slot];
+            compacted.createdSeconds[target] = createdSeconds[slot];
+            compacted.createdNanos[target] = createdNanos[slot];
+            compacted.recordOffsets[target] = compacted.copyRecord(this, slot);
+        }
+        return compacted;
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        createdSeconds = Arrays.copyOf(createdSeconds, capacity);
+        createdNanos = Arrays.copyOf(createdNanos, capacity);
+        recordOffsets = Arrays.copyOf(recordOffsets, capacity);
+    }
+
+    private long writeRecord(String fullName, String phone, String email) {
+        byte[] name = encode(fullName);
+        byte[] phoneBytes = encode(phone);
+        byte[] emailBytes = encode(email);
+        int length = encodedLength(name) + encodedLength(phoneBytes) + encodedLength(emailBytes);
+        ByteBuffer chunk = reserve(length);
+        long offset = ((long) (chunks.size() - 1) << 32) | chunk.position();
+        writeString(chunk, name);
+        writeString(chunk, phoneBytes);
+        writeString(chunk, emailBytes);
+        arenaBytes += length;
+        return offset;
+    }
+
+    private long copyRecord(ColumnarCustomerStore source, int slot) {
+        long sourceOffset = source.recordOffsets[slot];
+        int length = source.recordLength(slot);
+        ByteBuffer from = source.chunks.get((int) (sourceOffset >>> 32));
+        ByteBuffer chunk = reserve(length);
+        long offset = ((long) (chunks.size() - 1) << 32) | chunk.position();
+        int start = (int) sourceOffset;
+        chunk.put(from.duplicate().limit(start + length).position(start));
+        arenaBytes += length;
+        return offset;
+    }
+
+    // Returns the current chunk positioned for writing, starting a new one when the record does
+    // not fit. Records never straddle chunks; an oversized record gets a chunk of its own.
+    private ByteBuffer reserve(int length) {
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < length) {
+            int size = Math.max(CHUNK_SIZE, length);
+            chunk = offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+            chunks.add(chunk);
+        }
+        return chunk;
+    }
+
+    private int recordLength(int slot) {
+        long offset = recordOffsets[slot];
+        ByteBuffer chunk = chunks.get((int) (offset >>> 32));
+        int[] cursor = {(int) offset};
+        for (int field = 0; field < 3; field++) {
+            int length = readVarint(chunk, cursor) - 1;
+            cursor[0] += Math.max(length, 0);
+        }
+        return cursor[0] - (int) offset;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Each string is stored as its length plus one (zero for null) as a varint, then the bytes.
+    private static int encodedLength(byte[] bytes) {
+        int value = bytes == null ? 0 : bytes.length + 1;
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void writeString(ByteBuffer chunk, byte[] bytes) {
+        int value = bytes == null ? 0 : bytes.length + 1;
+        while ((value & ~0x7F) != 0) {
+            chunk.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        chunk.put((byte) value);
+        if (bytes != null) {
+            chunk.put(bytes);
+        }
+    }
+
+    // Reads with absolute gets only, so concurrent readers never touch the chunk's position.
+    private static String readString(ByteBuffer chunk, int[] cursor) {
+        int length = readVarint(chunk, cursor) - 1;
+        if (length < 0) {
+            return null;
+        }
+        int start = cursor[0];
+        cursor[0] += length;
+        if (chunk.hasArray()) {
+            return new String(chunk.array(), chunk.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        chunk.get(start, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarint(ByteBuffer chunk, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk.get(cursor[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
@@ -0,0 +1,173 @@
+package service;
+
+import model.Customer;
+import util.IntSortedSet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Exact-match hash indexes from phone and email to the ids of the customers holding them, so
+// "who owns this contact?" and the duplicate checks on insert are one hash lookup instead of a
+// scan. Emails compare case-insensitively. A key usually has one owner, kept as a boxed id; data
+// loaded from disk may already share a phone or email between customers, so a shared key holds an
+// IntSortedSet instead. The shared keys are tracked as they change, so duplicates can be listed
+// without a scan. Phones are keyed the way Customer packs them, a boxed long instead of a copy of
+// the string, since Customer does not keep one the index could share; other phones stay strings.
+class ContactIndex {
+    private static final int[] NO_OWNERS = new int[0];
+
+    private final Map<Object, Object> phones = new HashMap<>();
+    private final Map<String, Object> emails = new HashMap<>();
+    private final Set<Object> repeatedPhones = new HashSet<>();
+    private final Set<String> repeatedEmails = new HashSet<>();
+
+    void add(int id, String phone, String email) {
+        if (phone != null) {
+            addOwner(phones, repeatedPhones, phoneKey(phone), id);
+        }
+        if (email != null) {
+            addOwner(emails, repeatedEmails, emailKey(email), id);
+        }
+    }
+
+    void remove(int id, String phone, String email) {
+        if (phone != null) {
+            removeOwner(phones, repeatedPhones, phoneKey(phone), id);
+        }
+        if (email != null) {
+            removeOwner(emails, repeatedEmails, emailKey(email), id);
+        }
+    }
+
+    // The ids holding exactly this phone, in ascending order.
+    int[] phoneOwners(String phone) {
+        return phone == null ? NO_OWNERS : owners(phones.get(phoneKey(phone)));
+    }
+
+    // The ids holding this email, ignoring case, in ascending order.
+    int[] emailOwners(String email) {
+        return email == null ? NO_OWNERS : owners(emails.get(emailKey(email)));
+    }
+
+    // Some customer other than id holds the phone; pass -1 to ask about anyone.
+    boolean phoneTakenBy(String phone, int id) {
+        return phone != null && heldByOther(phones.get(phoneKey(phone)), id);
+    }
+
+    boolean emailTakenBy(String email, int id) {
+        return email != null && heldByOther(emails.get(emailKey(email)), id);
+    }
+
+    // Throws if a customer other than id holds the phone or email; null values are not checked.
+    void requireFree(int id, String phone, String email) {
+        if (phoneTakenBy(phone, id)) {
+            int owner = firstOther(phoneOwners(phone), id);
+            throw new DuplicateContactException("Phone " + phone + " already belongs to customer " + owner + ".", owner);
+        }
+        if (emailTakenBy(email, id)) {
+            int owner = firstOther(emailOwners(email), id);
+            throw new DuplicateContactException("Email " + email + " already belongs to customer " + owner + ".", owner);
+        }
+    }
+
+    // Each phone shared by several customers with the number of customers holding it.
+    Map<String, Integer> duplicatePhones() {
+        Map<String, Integer> result = new HashMap<>(repeatedPhones.size() * 2);
+        for (Object key : repeatedPhones) {
+            String phone = key instanceof Long ? Customer.unpackPhone((Long) key) : (String) key;
+            result.put(phone, ((IntSortedSet) phones.get(key)).size());
+        }
+        return result;
+    }
+
+    // Like duplicatePhones, keyed by lowercase email.
+    Map<String, Integer> duplicateEmails() {
+        return counts(emails, repeatedEmails);
+    }
+
+    boolean containsPhone(String phone) {
+        return phones.containsKey(phoneKey(phone));
+    }
+
+    boolean containsEmail(String email) {
+        return emails.containsKey(emailKey(email));
+    }
+
+    static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    private static Object phoneKey(String phone) {
+        long packed = Customer.packPhone(phone);
+        return packed > 0 ? (Object) packed : phone;
+    }
+
+    private static <K> void addOwner(Map<K, Object> index, Set<K> repeated, K key, int id) {
+        Object current = index.putIfAbsent(key, id);
+        if (current == null) {
+            return;
+        }
+        if (current instanceof Integer) {
+            int owner = (Integer) current;
+            if (owner == id) {
+                return;
+            }
+            IntSortedSet owners = new IntSortedSet(2);
+            owners.add(owner);
+            owners.add(id);
+            index.put(key, owners);
+            repeated.add(key);
+        } else {
+            ((IntSortedSet) current).add(id);
+        }
+    }
+
+    private static <K> void removeOwner(Map<K, Object> index, Set<K> repeated, K key, int id) {
+        Object current = index.get(key);
+        if (current instanceof Integer) {
+            if ((Integer) current == id) {
+                index.remove(key);
+            }
+        } else if (current != null) {
+            IntSortedSet owners = (IntSortedSet) current;
+            owners.remove(id);
+            if (owners.size() == 1) {
+                index.put(key, owners.get(0));
+                repeated.remove(key);
+            }
+        }
+    }
+
+    private static int[] owners(Object entry) {
+        if (entry == null) {
+            return NO_OWNERS;
+        }
+        return entry instanceof Integer ? new int[]{(Integer) entry} : ((IntSortedSet) entry).toArray();
+    }
+
+    private static int firstOther(int[] owners, int id) {
+        return owners[0] != id ? owners[0] : owners[1];
+    }
+
+    private static boolean heldByOther(Object entry, int id) {
+        if (entry == null) {
+            return false;
+        }
+        if (entry instanceof Integer) {
+            return (Integer) entry != id;
+        }
+        IntSortedSet owners = (IntSortedSet) entry;
+        return owners.size() > 1 || owners.get(0) != id;
+    }
+
+    private static Map<String, Integer> counts(Map<String, Object> index, Set<String> repeated) {
+        Map<String, Integer> result = new HashMap<>(repeated.size() * 2);
+        for (String key : repeated) {
+            result.put(key, ((IntSortedSet) index.get(key)).size());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,95 @@
+package service;
+
+import model.Customer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+
+// Walks the customers in slot order without copying the store. Rows are pulled a page at a time
+// under the service's read lock and handed out after it is released, so the cursor is weakly
+// consistent: rows changed while it is open may or may not be seen, but none is seen twice.
+// A cursor over a CustomerPreview pages through it the same way without taking the lock.
+public class CustomerCursor implements Iterator<Customer> {
+    static final int PAGE_SIZE = 1024;
+
+    private final Lock readLock;
+    private final CustomerStore source;
+    private final Iterator<Customer> preview;
+    private final Customer[] buffer = new Customer[PAGE_SIZE];
+    private int position;
+    private int buffered;
+    private int next;
+    private boolean exhausted;
+
+    CustomerCursor(Lock readLock, CustomerStore source) {
+        this.readLock = readLock;
+        this.source = source;
+        this.preview = null;
+    }
+
+    CustomerCursor(Iterator<Customer> preview) {
+        this.readLock = null;
+        this.source = null;
+        this.preview = preview;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next < buffered) {
+            return true;
+        }
+        while (!exhausted) {
+            fill();
+            if (buffered > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Customer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Customer customer = buffer[next];
+        buffer[next++] = null;
+        return customer;
+    }
+
+    public List<Customer> nextPage(int limit) {
+        List<Customer> page = new ArrayList<>(Math.min(limit, PAGE_SIZE));
+        while (page.size() < limit && hasNext()) {
+            page.add(next());
+        }
+        return page;
+    }
+
+    private void fill() {
+        buffered = 0;
+        next = 0;
+        if (preview != null) {
+            while (buffered < PAGE_SIZE && preview.hasNext()) {
+                buffer[buffered++] = preview.next();
+            }
+            exhausted = !preview.hasNext();
+            return;
+        }
+        readLock.lock();
+        try {
+            int end = Math.min(source.slotCount(), position + PAGE_SIZE);
+            for (; position < end; position++) {
+                Customer customer = source.get(position);
+                if (customer != null) {
+                    buffer[buffered++] = customer;
+                }
+            }
+            exhausted = position >= source.slotCount();
+        } finally {
+            readLock.unlock();
+        }
+    }
+}
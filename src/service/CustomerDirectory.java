@@ -0,0 +1,51 @@
+package service;
+
+import model.Customer;
+import model.CustomerDraft;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+// The operations the console and the HTTP front-end use, served by a single CustomerService or by
+// a ShardedCustomerService that spreads the customers over several. See CustomerService for what
+// each one does. A change is passed to persist while the write lock is still held, so it reaches
+// the journal in the order changes were applied and before anyone can change the customer again.
+public interface CustomerDirectory {
+    Customer addCustomer(String fullName, String phone, String email, Consumer<Customer> persist);
+
+    // Returns the customer as updated, or null when there is no such customer.
+    Customer updateCustomer(int id, String newFullName, String newPhone, String newEmail, Consumer<Customer> persist);
+
+    boolean deleteCustomer(int id, IntConsumer persist);
+
+    ImportResult importCustomers(Iterator<List<CustomerDraft>> batches, Consumer<List<Customer>> persist);
+
+    void replaceCustomers(List<Customer> newCustomers);
+
+    Customer findById(int id);
+
+    List<Customer> searchByName(String name);
+
+    List<Customer> searchByNameFuzzy(String name, int limit);
+
+    List<Customer> searchByPhone(String phone);
+
+    List<Customer> findByEmail(String email);
+
+    List<Customer> findByPhoneExact(String phone);
+
+    // Walks every customer without copying them; weakly consistent with concurrent changes.
+    Iterator<Customer> openCursor();
+
+    CustomerSnapshot openSnapshot();
+
+    List<Customer> listByName();
+
+    List<Customer> listByNewest();
+
+    int getTotalCustomers();
+
+    CustomerReport report();
+}
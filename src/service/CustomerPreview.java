@@ -0,0 +1,33 @@
+package service;
+
+import model.Customer;
+
+import java.util.Iterator;
+import java.util.function.IntFunction;
+
+// A read-only view of the customers that is cheap to open, served by CustomerService while the
+// real load runs in the background. It is never modified, since writes wait for the load.
+public interface CustomerPreview extends Iterable<Customer> {
+    Customer find(int id);
+
+    int size();
+
+    static CustomerPreview of(IntFunction<Customer> find, Iterable<Customer> customers, int size) {
+        return new CustomerPreview() {
+            @Override
+            public Customer find(int id) {
+                return find.apply(id);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Customer> iterator() {
+                return customers.iterator();
+            }
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// A point-in-time summary of the customers: sign-ups per day and month, email domains, phone
+// prefixes (the first three digits) and phones or emails shared by more than one customer. Group
+// maps iterate by date, or by count from the largest group down.
+public class CustomerReport {
+    private static final int SUMMARY_ROWS = 10;
+
+    private final int totalCustomers;
+    private final SortedMap<LocalDate, Long> signupsByDay;
+    private final SortedMap<YearMonth, Long> signupsByMonth;
+    private final Map<String, Long> emailDomains;
+    private final Map<String, Long> phonePrefixes;
+    private final Map<String, Long> duplicatePhones;
+    private final Map<String, Long> duplicateEmails;
+
+    CustomerReport(int totalCustomers, ReportAggregator groups, Map<String, Integer> duplicatePhones,
+                   Map<String, Integer> duplicateEmails) {
+        this.totalCustomers = totalCustomers;
+        this.signupsByDay = Collections.unmodifiableSortedMap(new TreeMap<>(groups.signupsByDay()));
+        SortedMap<YearMonth, Long> byMonth = new TreeMap<>();
+        groups.signupsByDay().forEach((day, count) -> byMonth.merge(YearMonth.from(day), count, Long::sum));
+        this.signupsByMonth = Collections.unmodifiableSortedMap(byMonth);
+        this.emailDomains = byCount(groups.emailDomains());
+        this.phonePrefixes = byCount(groups.phonePrefixes());
+        this.duplicatePhones = byCount(widen(duplicatePhones));
+        this.duplicateEmails = byCount(widen(duplicateEmails));
+    }
+
+    public int getTotalCustomers() {
+        return totalCustomers;
+    }
+
+    public SortedMap<LocalDate, Long> getSignupsByDay() {
+        return signupsByDay;
+    }
+
+    public SortedMap<YearMonth, Long> getSignupsByMonth() {
+        return signupsByMonth;
+    }
+
+    public Map<String, Long> getEmailDomains() {
+        return emailDomains;
+    }
+
+    public Map<String, Long> getPhonePrefixes() {
+        return phonePrefixes;
+    }
+
+    public Map<String, Long> getDuplicatePhones() {
+        return duplicatePhones;
+    }
+
+    public Map<String, Long> getDuplicateEmails() {
+        return duplicateEmails;
+    }
+
+    // Writes every group as a section,key,count row in one pass.
+    public void writeCsv(Writer out) throws IOException {
+        out.write("section,key,count\n");
+        writeRow(out, "total", "", totalCustomers);
+        writeSection(out, "signups_by_day", signupsByDay);
+        writeSection(out, "signups_by_month", signupsByMonth);
+        writeSection(out, "email_domain", emailDomains);
+        writeSection(out, "phone_prefix", phonePrefixes);
+        writeSection(out, "duplicate_phone", duplicatePhones);
+        writeSection(out, "duplicate_email", duplicateEmails);
+    }
+
+    // The total, the latest months and the largest groups of each kind.
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append("Total customers: ").append(totalCustomers).append('\n');
+        List<Map.Entry<YearMonth, Long>> months = new ArrayList<>(signupsByMonth.entrySet());
+        appendSection(out, "Sign-ups by month (latest)",
+                months.subList(Math.max(0, months.size() - SUMMARY_ROWS), months.size()), months.size());
+        appendSection(out, "Top email domains", emailDomains.entrySet(), emailDomains.size());
+        appendSection(out, "Top phone prefixes", phonePrefixes.entrySet(), phonePrefixes.size());
+        appendSection(out, "Phones shared by several customers", duplicatePhones.entrySet(), duplicatePhones.size());
+        appendSection(out, "Emails shared by several customers", duplicateEmails.entrySet(), duplicateEmails.size());
+        return out.toString().trim();
+    }
+
+    private static void appendSection(StringBuilder out, String title, Iterable<? extends Map.Entry<?, Long>> rows,
+                                      int groups) {
+        out.append(title).append(" (").append(groups).append(" groups):\n");
+        int shown = 0;
+        for (Map.Entry<?, Long> row : rows) {
+            if (shown++ == SUMMARY_ROWS) {
+                out.append("  ...\n");
+                break;
+            }
+            Object key = row.getKey();
+            out.append("  ").append(key.toString().isEmpty() ? "(none)" : key).append(": ").append(row.getValue()).append('\n');
+        }
+    }
+
+    private static void writeSection(Writer out, String section, Map<?, Long> groups) throws IOException {
+        for (Map.Entry<?, Long> group : groups.entrySet()) {
+            writeRow(out, section, group.getKey().toString(), group.getValue());
+        }
+    }
+
+    private static void writeRow(Writer out, String section, String key, long count) throws IOException {
+        out.write(section);
+        out.write(',');
+        out.write(csvField(key));
+        out.write(',');
+        out.write(Long.toString(count));
+        out.write('\n');
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static Map<String, Long> widen(Map<String, Integer> counts) {
+        Map<String, Long> widened = new LinkedHashMap<>(counts.size() * 2);
+        counts.forEach((key, count) -> widened.put(key, (long) count));
+        return widened;
+    }
+
+    // Largest group first; ties by key so the order is stable between reports.
+    private static Map<String, Long> byCount(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Long> ordered = new LinkedHashMap<>(entries.size() * 2);
+        for (Map.Entry<String, Long> entry : entries) {
+            ordered.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(ordered);
+    }
+}
@@ -1,119 +1,896 @@
 package service;
 
 import model.Customer;
+import model.CustomerDraft;
+import util.IntIntMap;
+import util.Metrics;
+import util.Validation;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class CustomerService {
-    private final List<Customer> customers;
-    private int nextId;
+public class CustomerService implements CustomerDirectory {
+    private static final ForkJoinTask<ValidatedBatch> END_OF_IMPORT = ForkJoinTask.adapt(() -> null);
+
+    // Lookups and index queries share the read lock; mutations take the write lock. Full scans
+    // only hold the read lock one page at a time so they never stall writers for long.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    // Deleted customers leave an empty slot behind so removal does not shift the store.
+    // Compaction installs a new store rather than rearranging this one, so a scan that started on
+    // the old store can keep walking it by slot. Slots always stay in insertion order; sorted
+    // listings come from the maintained views.
+    private final Supplier<CustomerStore> storeFactory;
+    private CustomerStore store;
+    private IntIntMap positionsById;
+    private NameIndex nameIndex;
+    // Built by the first fuzzy search and kept up to date from then on; null until then.
+    private FuzzyNameIndex fuzzyNames;
+    private PhoneIndex phoneIndex;
+    private ContactIndex contacts;
+    private SortedViews sortedViews;
+    // Report groups kept up to date on every change when trackReport is set; otherwise null and
+    // each report scans the store.
+    private final boolean trackReport;
+    private ReportAggregator reportGroups;
+    // When set, addCustomer and updateCustomer refuse a phone or email another customer holds.
+    private final boolean uniqueContacts;
+    // Set while loadInBackground runs: lookups, cursors and the count are served from the preview
+    // and everything else waits for the load to finish.
+    private volatile CustomerPreview preview;
+    private volatile CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
+    // Snapshots still open; writers save the old value of a slot for them before changing it.
+    private final List<StoreSnapshot> openSnapshots = new CopyOnWriteArrayList<>();
 
     public CustomerService(List<Customer> initialCustomers) {
-        this.customers = new ArrayList<>();
-        if (initialCustomers != null) {
-            this.customers.addAll(initialCustomers);
+        this(initialCustomers, ObjectCustomerStore::new);
+    }
+
+    // The factory picks the storage engine, e.g. ColumnarCustomerStore::new to keep customers in
+    // primitive columns. With a store that materializes customers on demand, the customers this
+    // service returns are copies, and changes must go through updateCustomer.
+    public CustomerService(List<Customer> initialCustomers, Supplier<CustomerStore> storeFactory) {
+        this(initialCustomers, storeFactory, false);
+    }
+
+    // With trackReport the groups behind report() are updated with every change, so a report costs
+    // time in the number of groups rather than a scan, at a small cost on each write.
+    public CustomerService(List<Customer> initialCustomers, Supplier<CustomerStore> storeFactory, boolean trackReport) {
+        this(initialCustomers, storeFactory, trackReport, false);
+    }
+
+    // With uniqueContacts a new or changed phone or email that another customer already holds is
+    // rejected with a DuplicateContactException, checked against the contact index in constant
+    // time. Customers loaded from disk that already share a contact are kept as they are.
+    public CustomerService(List<Customer> initialCustomers, Supplier<CustomerStore> storeFactory, boolean trackReport,
+            boolean uniqueContacts) {
+        this.storeFactory = storeFactory;
+        this.trackReport = trackReport;
+        this.uniqueContacts = uniqueContacts;
+        install(initialCustomers);
+    }
+
+    // Replaces the customers with what loader returns on a background thread and answers reads from
+    // the preview until then, so a large snapshot can be browsed right after startup. Writes,
+    // searches and sorted listings block until the load completes.
+    public void loadInBackground(CustomerPreview preview, Supplier<List<Customer>> loader) {
+        awaitLoaded();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        this.preview = preview;
+        this.loading = done;
+        Thread thread = new Thread(() -> {
+            try {
+                install(loader.get());
+            } catch (RuntimeException e) {
+                System.out.println("Failed to load customers: " + e.getMessage());
+            } finally {
+                this.preview = null;
+                done.complete(null);
+            }
+        }, "customer-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Blocks until a load started by loadInBackground has been installed.
+    public void awaitLoaded() {
+        CompletableFuture<Void> pending = loading;
+        if (!pending.isDone()) {
+            pending.join();
         }
-        recalcNextId();
     }
 
+    @Override
     public void replaceCustomers(List<Customer> newCustomers) {
-        customers.clear();
+        awaitLoaded();
+        install(newCustomers);
+    }
+
+    private void install(List<Customer> newCustomers) {
+        CustomerStore newStore = storeFactory.get();
+        IntIntMap positions = new IntIntMap(newCustomers == null ? 0 : newCustomers.size());
+        NameIndex names = new NameIndex();
+        PhoneIndex phones = new PhoneIndex();
+        ContactIndex contactIndex = new ContactIndex();
+        SortedViews views = new SortedViews();
+        int maxId = 0;
         if (newCustomers != null) {
-            customers.addAll(newCustomers);
+            for (Customer customer : newCustomers) {
+                int slot = newStore.append(customer);
+                // Keep the first occurrence so a duplicated id resolves the same way a linear scan did.
+                if (positions.putIfAbsent(customer.getId(), slot)) {
+                    names.add(customer.getId(), customer.getFullName());
+                    phones.add(customer.getId(), customer.getPhone());
+                    contactIndex.add(customer.getId(), customer.getPhone(), customer.getEmail());
+                    views.add(customer);
+                }
+                maxId = Math.max(maxId, customer.getId());
+            }
+        }
+        ReportAggregator groups = trackReport ? ReportAggregator.scan(newStore, null) : null;
+
+        lock.writeLock().lock();
+        try {
+            store = newStore;
+            positionsById = positions;
+            nameIndex = names;
+            fuzzyNames = null;
+            phoneIndex = phones;
+            contacts = contactIndex;
+            sortedViews = views;
+            reportGroups = groups;
+            nextId.set(maxId + 1);
+        } finally {
+            lock.writeLock().unlock();
         }
-        recalcNextId();
     }
 
-    public Customer addCustomer(String fullName, String phone, String email) {
-        Customer customer = new Customer(nextId++, fullName, phone, email);
-        customers.add(customer);
-        return customer;
+    @Override
+    public Customer addCustomer(String fullName, String phone, String email, Consumer<Customer> persist) {
+        long started = Metrics.start(Metrics.Op.ADD);
+        try {
+            awaitLoaded();
+            lock.writeLock().lock();
+            try {
+                if (uniqueContacts) {
+                    contacts.requireFree(-1, phone, email);
+                }
+                // Ids are handed out under the write lock so a rejected add does not use one up.
+                Customer customer = new Customer(nextId.getAndIncrement(), fullName, phone, email);
+                append(customer);
+                persist.accept(customer);
+                return customer;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Metrics.stop(Metrics.Op.ADD, started);
+        }
     }
 
-    public boolean updateCustomer(int id, String newFullName, String newPhone, String newEmail) {
-        Customer customer = findById(id);
-        if (customer == null) {
-            return false;
+    // Adds customers whose ids were handed out by the caller, e.g. a ShardedCustomerService, and
+    // moves this service's next id past them. Contacts are not checked.
+    void insert(List<Customer> customers) {
+        awaitLoaded();
+        lock.writeLock().lock();
+        try {
+            for (Customer customer : customers) {
+                append(customer);
+                if (customer.getId() >= nextId.get()) {
+                    nextId.set(customer.getId() + 1);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
-        if (newFullName != null) {
-            customer.setFullName(newFullName);
+    }
+
+    // Stores and indexes a customer with an unused id; the caller holds the write lock.
+    private void append(Customer customer) {
+        int id = customer.getId();
+        positionsById.put(id, store.append(customer));
+        nameIndex.add(id, customer.getFullName());
+        if (fuzzyNames != null) {
+            fuzzyNames.add(id, customer.getFullName());
         }
-        if (newPhone != null) {
-            customer.setPhone(newPhone);
+        phoneIndex.add(id, customer.getPhone());
+        contacts.add(id, customer.getPhone(), customer.getEmail());
+        sortedViews.add(customer);
+        if (reportGroups != null) {
+            reportGroups.add(customer);
         }
-        if (newEmail != null) {
-            customer.setEmail(newEmail);
+    }
+
+    // Adds customers from a stream of batches. Reading the batches, validating them and committing
+    // them run as a pipeline: a reader thread pulls batches and hands each to the fork-join pool for
+    // validation while this thread commits the finished ones in order. Rows whose phone or email is
+    // already taken, by an existing customer or an earlier row, are skipped as duplicates. Each
+    // committed batch takes one id range and one write lock, and is passed to persist once.
+    @Override
+    public ImportResult importCustomers(Iterator<List<CustomerDraft>> batches, Consumer<List<Customer>> persist) {
+        awaitLoaded();
+        return importBatches(batches, this::commit, persist);
+    }
+
+    // The import pipeline, committing each validated batch with commit and returning the customers
+    // it added.
+    static ImportResult importBatches(Iterator<List<CustomerDraft>> batches,
+            Function<List<CustomerDraft>, List<Customer>> commit, Consumer<List<Customer>> persist) {
+        long started = Metrics.start(Metrics.Op.IMPORT);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        BlockingQueue<ForkJoinTask<ValidatedBatch>> pending = new ArrayBlockingQueue<>(pool.getParallelism() * 2);
+        AtomicReference<RuntimeException> readFailure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (batches.hasNext()) {
+                    List<CustomerDraft> batch = batches.next();
+                    pending.put(pool.submit(() -> validate(batch)));
+                }
+            } catch (RuntimeException e) {
+                readFailure.set(e);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                pending.put(END_OF_IMPORT);
+            } catch (InterruptedException ignored) {
+                // The committer has already given up.
+            }
+        }, "customer-import-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        int imported = 0;
+        int invalid = 0;
+        int duplicates = 0;
+        try {
+            while (true) {
+                ForkJoinTask<ValidatedBatch> task = pending.take();
+                if (task == END_OF_IMPORT) {
+                    break;
+                }
+                ValidatedBatch batch = task.join();
+                List<Customer> added = commit.apply(batch.valid);
+                invalid += batch.invalid;
+                duplicates += batch.valid.size() - added.size();
+                imported += added.size();
+                if (!added.isEmpty()) {
+                    persist.accept(added);
+                }
+            }
+            if (readFailure.get() != null) {
+                throw readFailure.get();
+            }
+            return new ImportResult(imported, invalid, duplicates, true);
+        } catch (InterruptedException e) {
+            // The committed batches stay committed and journaled; the caller learns the rest was not read.
+            Thread.currentThread().interrupt();
+            return new ImportResult(imported, invalid, duplicates, false);
+        } finally {
+            reader.interrupt();
+            Metrics.addVolume(Metrics.Op.IMPORT, imported, 0);
+            Metrics.stop(Metrics.Op.IMPORT, started);
         }
-        return true;
     }
 
-    public boolean deleteCustomer(int id) {
-        Customer customer = findById(id);
-        if (customer == null) {
-            return false;
+    @Override
+    public Customer updateCustomer(int id, String newFullName, String newPhone, String newEmail,
+            Consumer<Customer> persist) {
+        long started = Metrics.start(Metrics.Op.UPDATE);
+        try {
+            awaitLoaded();
+            lock.writeLock().lock();
+            try {
+                int position = positionsById.get(id, -1);
+                if (position < 0) {
+                    return null;
+                }
+                if (uniqueContacts) {
+                    contacts.requireFree(id, newPhone, newEmail);
+                }
+                preserveForSnapshots(position, id, false);
+                Customer current = store.get(position);
+                String oldFullName = current.getFullName();
+                String oldPhone = current.getPhone();
+                String oldEmail = current.getEmail();
+                store.update(position, newFullName, newPhone, newEmail);
+                if (newFullName != null) {
+                    nameIndex.remove(id, oldFullName);
+                    nameIndex.add(id, newFullName);
+                    if (fuzzyNames != null) {
+                        fuzzyNames.remove(id, oldFullName);
+                        fuzzyNames.add(id, newFullName);
+                    }
+                    sortedViews.rename(id, oldFullName, newFullName);
+                }
+                if (newPhone != null) {
+                    phoneIndex.remove(id, oldPhone);
+                    phoneIndex.add(id, newPhone);
+                }
+                if (newPhone != null || newEmail != null) {
+                    contacts.remove(id, newPhone != null ? oldPhone : null, newEmail != null ? oldEmail : null);
+                    contacts.add(id, newPhone, newEmail);
+                    if (reportGroups != null) {
+                        reportGroups.countContact(newPhone != null ? oldPhone : null, newEmail != null ? oldEmail : null, -1);
+                        reportGroups.countContact(newPhone, newEmail, 1);
+                    }
+                }
+                // Read back from the store, as get() may return a detached copy from before the edit.
+                Customer updated = store.get(position);
+                persist.accept(updated);
+                compactIfNeeded();
+                return updated;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Metrics.stop(Metrics.Op.UPDATE, started);
         }
-        return customers.remove(customer);
     }
 
+    @Override
+    public boolean deleteCustomer(int id, IntConsumer persist) {
+        long started = Metrics.start(Metrics.Op.DELETE);
+        try {
+            awaitLoaded();
+            lock.writeLock().lock();
+            try {
+                int position = positionsById.get(id, -1);
+                if (position < 0) {
+                    return false;
+                }
+                Customer customer = store.get(position);
+                positionsById.remove(id);
+                nameIndex.remove(id, customer.getFullName());
+                if (fuzzyNames != null) {
+                    fuzzyNames.remove(id, customer.getFullName());
+                }
+                phoneIndex.remove(id, customer.getPhone());
+                contacts.remove(id, customer.getPhone(), customer.getEmail());
+                sortedViews.remove(customer);
+                if (reportGroups != null) {
+                    reportGroups.remove(customer);
+                }
+                preserveForSnapshots(position, id, true);
+                store.delete(position);
+                persist.accept(id);
+                compactIfNeeded();
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            Metrics.stop(Metrics.Op.DELETE, started);
+        }
+    }
+
+    @Override
     public Customer findById(int id) {
-        for (Customer customer : customers) {
-            if (customer.getId() == id) {
-                return customer;
+        long started = Metrics.start(Metrics.Op.FIND_BY_ID);
+        try {
+            CustomerPreview loadingPreview = preview;
+            if (loadingPreview != null) {
+                return loadingPreview.find(id);
+            }
+            lock.readLock().lock();
+            try {
+                return lookup(id);
+            } finally {
+                lock.readLock().unlock();
             }
+        } finally {
+            Metrics.stop(Metrics.Op.FIND_BY_ID, started);
         }
-        return null;
     }
 
+    @Override
     public List<Customer> searchByName(String name) {
-        List<Customer> results = new ArrayList<>();
-        String needle = name.toLowerCase();
-        for (Customer customer : customers) {
-            if (customer.getFullName().toLowerCase().contains(needle)) {
-                results.add(customer);
+        long started = Metrics.start(Metrics.Op.SEARCH_BY_NAME);
+        try {
+            awaitLoaded();
+            List<Customer> results = new ArrayList<>();
+            String needle = NameIndex.normalize(name);
+            lock.readLock().lock();
+            try {
+                boolean indexed = nameIndex.forEachCandidate(needle, id -> {
+                    Customer customer = lookup(id);
+                    if (customer != null && NameIndex.containsNormalized(customer.getFullName(), needle)) {
+                        results.add(customer);
+                    }
+                    return true;
+                });
+                if (indexed) {
+                    sortByPosition(results);
+                    return results;
+                }
+            } finally {
+                lock.readLock().unlock();
             }
+            scan(customer -> {
+                if (NameIndex.containsNormalized(customer.getFullName(), needle)) {
+                    results.add(customer);
+                }
+                return true;
+            });
+            return results;
+        } finally {
+            Metrics.stop(Metrics.Op.SEARCH_BY_NAME, started);
         }
+    }
+
+    // Up to limit customers whose names are spelled or sound like the query, best match first,
+    // for names typed with mistakes ("Jon Smyth" finds "John Smith"). Ranked from the fuzzy name
+    // index over the distinct words in names, so the cost does not grow with the customer count.
+    // The index is built by the first call, which takes longer, and maintained after that.
+    @Override
+    public List<Customer> searchByNameFuzzy(String name, int limit) {
+        List<Customer> results = new ArrayList<>(Math.min(Math.max(limit, 0), CustomerCursor.PAGE_SIZE));
+        forEachFuzzyMatch(name, limit, (customer, score) -> results.add(customer));
         return results;
     }
 
+    // Visits the customers searchByNameFuzzy returns, in the same order, with their match scores.
+    void forEachFuzzyMatch(String name, int limit, ObjDoubleConsumer<Customer> visitor) {
+        long started = Metrics.start(Metrics.Op.SEARCH_BY_NAME_FUZZY);
+        try {
+            awaitLoaded();
+            if (limit <= 0) {
+                return;
+            }
+            lockFuzzyNames();
+            try {
+                Set<Integer> seen = new HashSet<>();
+                int[] visited = new int[1];
+                fuzzyNames.forEachMatch(name, (id, score) -> {
+                    if (seen.add(id)) {
+                        Customer customer = lookup(id);
+                        if (customer != null) {
+                            visitor.accept(customer, score);
+                            visited[0]++;
+                        }
+                    }
+                    return visited[0] < limit;
+                });
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            Metrics.stop(Metrics.Op.SEARCH_BY_NAME_FUZZY, started);
+        }
+    }
+
+    // Takes the read lock with the fuzzy name index built, building it under the write lock and
+    // downgrading if this is the first fuzzy search.
+    private void lockFuzzyNames() {
+        lock.readLock().lock();
+        if (fuzzyNames != null) {
+            return;
+        }
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+            if (fuzzyNames == null) {
+                FuzzyNameIndex index = new FuzzyNameIndex();
+                for (int slot = 0; slot < store.slotCount(); slot++) {
+                    int id = store.idAt(slot);
+                    if (positionsById.get(id, -1) == slot) {
+                        index.add(id, store.get(slot).getFullName());
+                    }
+                }
+                fuzzyNames = index;
+            }
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
     public List<Customer> searchByPhone(String phone) {
-        List<Customer> results = new ArrayList<>();
-        for (Customer customer : customers) {
-            if (customer.getPhone().contains(phone)) {
-                results.add(customer);
+        long started = Metrics.start(Metrics.Op.SEARCH_BY_PHONE);
+        try {
+            awaitLoaded();
+            List<Customer> results = new ArrayList<>();
+            if (phone.isEmpty()) {
+                return liveCustomers();
+            }
+            lock.readLock().lock();
+            try {
+                phoneIndex.forEachCandidate(phone, id -> {
+                    Customer customer = lookup(id);
+                    // Customers rebuild the phone from its packed digits, so it is read once.
+                    String candidate = customer == null ? null : customer.getPhone();
+                    if (candidate != null && candidate.contains(phone)) {
+                        results.add(customer);
+                    }
+                    return true;
+                });
+                sortByPosition(results);
+            } finally {
+                lock.readLock().unlock();
             }
+            return results;
+        } finally {
+            Metrics.stop(Metrics.Op.SEARCH_BY_PHONE, started);
+        }
+    }
+
+    // The customers holding exactly this email, ignoring case, in id order. With unique contacts
+    // there is at most one, unless the loaded data already shared it.
+    @Override
+    public List<Customer> findByEmail(String email) {
+        long started = Metrics.start(Metrics.Op.FIND_BY_CONTACT);
+        try {
+            awaitLoaded();
+            lock.readLock().lock();
+            try {
+                return lookupAll(contacts.emailOwners(email));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            Metrics.stop(Metrics.Op.FIND_BY_CONTACT, started);
+        }
+    }
+
+    // The customers whose phone is exactly this one, in id order; searchByPhone matches fragments.
+    @Override
+    public List<Customer> findByPhoneExact(String phone) {
+        long started = Metrics.start(Metrics.Op.FIND_BY_CONTACT);
+        try {
+            awaitLoaded();
+            lock.readLock().lock();
+            try {
+                return lookupAll(contacts.phoneOwners(phone));
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            Metrics.stop(Metrics.Op.FIND_BY_CONTACT, started);
         }
-        return results;
     }
 
     public List<Customer> listCustomers() {
-        return new ArrayList<>(customers);
+        return liveCustomers();
+    }
+
+    // Opens a point-in-time view of the customers for a save, report or listing that must not see
+    // changes made while it runs; see CustomerSnapshot. Close it when done.
+    @Override
+    public CustomerSnapshot openSnapshot() {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return pin();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Opens a snapshot of the store as it is; the caller holds the lock.
+    private StoreSnapshot pin() {
+        StoreSnapshot snapshot = new StoreSnapshot(this, lock.readLock(), store, positionsById);
+        openSnapshots.add(snapshot);
+        return snapshot;
+    }
+
+    void release(StoreSnapshot snapshot) {
+        openSnapshots.remove(snapshot);
+    }
+
+    // Called under the write lock before the slot is changed or deleted.
+    private void preserveForSnapshots(int position, int id, boolean deleting) {
+        if (openSnapshots.isEmpty()) {
+            return;
+        }
+        for (StoreSnapshot snapshot : openSnapshots) {
+            snapshot.preserve(store, position, id, deleting);
+        }
+    }
+
+    // Returns a cursor over the customers in slot order; see CustomerCursor for its consistency.
+    @Override
+    public CustomerCursor openCursor() {
+        CustomerPreview loadingPreview = preview;
+        if (loadingPreview != null) {
+            return new CustomerCursor(loadingPreview.iterator());
+        }
+        lock.readLock().lock();
+        try {
+            return new CustomerCursor(lock.readLock(), store);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Stream<Customer> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(openCursor(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    // Returns up to limit customers starting at the given offset into the live customers.
+    // Each call skips from the start, so walking a large list should use openCursor() instead.
+    public List<Customer> page(int offset, int limit) {
+        CustomerCursor cursor = openCursor();
+        for (int skipped = 0; skipped < offset && cursor.hasNext(); skipped++) {
+            cursor.next();
+        }
+        return cursor.nextPage(limit);
     }
 
     public List<Customer> getAllCustomers() {
-        return new ArrayList<>(customers);
+        return liveCustomers();
     }
 
-    public void sortByName() {
-        customers.sort(Comparator.comparing(c -> c.getFullName().toLowerCase()));
+    @Override
+    public List<Customer> listByName() {
+        long started = Metrics.start(Metrics.Op.LIST_BY_NAME);
+        try {
+            awaitLoaded();
+            return resolve(currentViews().byName());
+        } finally {
+            Metrics.stop(Metrics.Op.LIST_BY_NAME, started);
+        }
     }
 
-    public void sortByNewest() {
-        customers.sort(Comparator.comparing(Customer::getCreatedAt).reversed());
+    @Override
+    public List<Customer> listByNewest() {
+        long started = Metrics.start(Metrics.Op.LIST_BY_NEWEST);
+        try {
+            awaitLoaded();
+            return resolve(currentViews().byNewest());
+        } finally {
+            Metrics.stop(Metrics.Op.LIST_BY_NEWEST, started);
+        }
     }
 
+    @Override
     public int getTotalCustomers() {
-        return customers.size();
+        CustomerPreview loadingPreview = preview;
+        if (loadingPreview != null) {
+            return loadingPreview.size();
+        }
+        lock.readLock().lock();
+        try {
+            return store.liveCount();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    private void recalcNextId() {
-        int maxId = 0;
-        for (Customer customer : customers) {
-            if (customer.getId() > maxId) {
-                maxId = customer.getId();
+    // Aggregates the customers into sign-up, domain, prefix and duplicate groups. Without
+    // trackReport a snapshot is scanned in parallel on the fork-join pool, a page of slots per task
+    // under the read lock, so every group counts the customers as they were when the report began
+    // while writers carry on.
+    @Override
+    public CustomerReport report() {
+        awaitLoaded();
+        long started = Metrics.start(Metrics.Op.REPORT);
+        StoreSnapshot snapshot;
+        int total;
+        Map<String, Integer> duplicatePhones;
+        Map<String, Integer> duplicateEmails;
+        lock.readLock().lock();
+        try {
+            total = store.liveCount();
+            duplicatePhones = contacts.duplicatePhones();
+            duplicateEmails = contacts.duplicateEmails();
+            if (reportGroups != null) {
+                CustomerReport report = new CustomerReport(total, reportGroups, duplicatePhones, duplicateEmails);
+                Metrics.stop(Metrics.Op.REPORT, started);
+                return report;
+            }
+            // Opened under the same read lock as the counts above, so they describe one moment.
+            snapshot = pin();
+        } finally {
+            lock.readLock().unlock();
+        }
+        ReportAggregator groups;
+        try (snapshot) {
+            groups = snapshot.groups();
+        }
+        CustomerReport report = new CustomerReport(total, groups, duplicatePhones, duplicateEmails);
+        Metrics.addVolume(Metrics.Op.REPORT, snapshot.slotCount(), 0);
+        Metrics.stop(Metrics.Op.REPORT, started);
+        return report;
+    }
+
+    // The groups kept up to date with trackReport, copied, or null when they are not kept.
+    ReportAggregator copyTrackedGroups() {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return reportGroups == null ? null : new ReportAggregator().merge(reportGroups);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // findById without the metrics, for a ShardedCustomerService looking at a customer it is about
+    // to change.
+    Customer peek(int id) {
+        lock.readLock().lock();
+        try {
+            return lookup(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // This service's write lock, so a ShardedCustomerService can take it before letting go of its
+    // own and changes reach the shard in the order they were handed out. The lock is reentrant, so
+    // the service's own methods still run while the caller holds it.
+    Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    // Opens a snapshot for a ShardedCustomerService report, which merges the groups itself.
+    StoreSnapshot openStoreSnapshot() {
+        awaitLoaded();
+        lock.readLock().lock();
+        try {
+            return pin();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Customer lookup(int id) {
+        int position = positionsById.get(id, -1);
+        return position < 0 ? null : store.get(position);
+    }
+
+    private List<Customer> lookupAll(int[] ids) {
+        List<Customer> customers = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Customer customer = lookup(id);
+            if (customer != null) {
+                customers.add(customer);
             }
         }
-        nextId = maxId + 1;
+        return customers;
+    }
+
+    // Walks ids from a sorted view and looks them up a page at a time under the read lock, the
+    // same way the cursor does. Customers deleted since the view was read are skipped.
+    private List<Customer> resolve(PrimitiveIterator.OfInt ids) {
+        List<Customer> results = new ArrayList<>(getTotalCustomers());
+        int[] page = new int[CustomerCursor.PAGE_SIZE];
+        while (ids.hasNext()) {
+            int count = 0;
+            while (count < page.length && ids.hasNext()) {
+                page[count++] = ids.nextInt();
+            }
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Customer customer = lookup(page[i]);
+                    if (customer != null) {
+                        results.add(customer);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return results;
+    }
+
+    private void scan(Predicate<Customer> visitor) {
+        CustomerCursor cursor = openCursor();
+        while (cursor.hasNext()) {
+            if (!visitor.test(cursor.next())) {
+                return;
+            }
+        }
+    }
+
+    private SortedViews currentViews() {
+        lock.readLock().lock();
+        try {
+            return sortedViews;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Index lookups come back in id order; callers expect the list order a scan would give.
+    private void sortByPosition(List<Customer> results) {
+        results.sort(Comparator.comparingInt(customer -> positionsById.get(customer.getId(), -1)));
+    }
+
+    private List<Customer> liveCustomers() {
+        List<Customer> live = new ArrayList<>(getTotalCustomers());
+        scan(live::add);
+        return live;
+    }
+
+    // Runs on the fork-join pool; touches nothing but the batch.
+    private static ValidatedBatch validate(List<CustomerDraft> batch) {
+        List<CustomerDraft> valid = new ArrayList<>(batch.size());
+        for (CustomerDraft draft : batch) {
+            String fullName = draft.getFullName() == null ? null : draft.getFullName().trim();
+            String phone = draft.getPhone() == null ? null : draft.getPhone().trim();
+            String email = draft.getEmail() == null ? null : draft.getEmail().trim();
+            if (Validation.isValidName(fullName) && Validation.isValidPhone(phone) && Validation.isValidEmail(email)) {
+                valid.add(new CustomerDraft(fullName, phone, email, draft.getCreatedAt()));
+            }
+        }
+        return new ValidatedBatch(valid, batch.size() - valid.size());
+    }
+
+    private List<Customer> commit(List<CustomerDraft> drafts) {
+        List<Customer> added = new ArrayList<>(drafts.size());
+        lock.writeLock().lock();
+        try {
+            // Ids are only handed out under the write lock, so the batch takes the next ones in order.
+            int id = nextId.get();
+            for (CustomerDraft draft : drafts) {
+                // Each customer is indexed as it is added, so a later row with the same contact is skipped.
+                if (contacts.containsPhone(draft.getPhone()) || contacts.containsEmail(draft.getEmail())) {
+                    continue;
+                }
+                Customer customer = draft.toCustomer(id++);
+                append(customer);
+                added.add(customer);
+            }
+            nextId.set(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    private void compactIfNeeded() {
+        if (store.needsCompaction()) {
+            store = store.compact();
+            positionsById = buildPositions(store);
+        }
+    }
+
+    private static IntIntMap buildPositions(CustomerStore store) {
+        IntIntMap positions = new IntIntMap(store.slotCount());
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            // Keep the first occurrence so a duplicated id resolves the same way a linear scan did.
+            positions.putIfAbsent(store.idAt(slot), slot);
+        }
+        return positions;
+    }
+
+    private static final class ValidatedBatch {
+        private final List<CustomerDraft> valid;
+        private final int invalid;
+
+        private ValidatedBatch(List<CustomerDraft> valid, int invalid) {
+            this.valid = valid;
+            this.invalid = invalid;
+        }
     }
 }
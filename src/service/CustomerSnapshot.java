@@ -0,0 +1,17 @@
+package service;
+
+import model.Customer;
+
+// A point-in-time view of the customers, opened with openSnapshot() for a save, report or listing
+// that must not see changes made while it runs. Writers carry on meanwhile. Close it when done, or
+// writers keep saving old versions of the customers they change for it.
+public interface CustomerSnapshot extends Iterable<Customer>, AutoCloseable {
+    // The number of customers when the snapshot was opened.
+    int size();
+
+    // Returns the customer with this id as it was when the snapshot was opened, or null.
+    Customer find(int id);
+
+    @Override
+    void close();
+}
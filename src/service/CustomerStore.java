@@ -0,0 +1,30 @@
+package service;
+
+import model.Customer;
+
+// Slot-addressed record storage behind CustomerService. Slots are handed out in insertion order
+// and never move; deleting a slot leaves a hole until the store is compacted into a new one.
+// The service serializes writers and holds its read lock around every read.
+public interface CustomerStore {
+    int slotCount();
+
+    int liveCount();
+
+    // Returns the id of the customer in the slot, whether or not it has been deleted.
+    int idAt(int slot);
+
+    // Returns the customer in the slot, or null if it was deleted.
+    Customer get(int slot);
+
+    int append(Customer customer);
+
+    // Null arguments keep the current value.
+    void update(int slot, String fullName, String phone, String email);
+
+    void delete(int slot);
+
+    boolean needsCompaction();
+
+    // Returns a new store holding the live customers in slot order; this store is left unchanged.
+    CustomerStore compact();
+}
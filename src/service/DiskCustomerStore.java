@@ -0,0 +1,318 @@
+package service;
+
+import model.Customer;
+import util.Metrics;
+import util.RecordCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Keeps customer records in a scratch file on disk and only their ids and file positions in
+// memory, about 12 bytes per customer, so the store can hold far more customers than fit on the
+// heap. Reads go through a bounded RecordCache of decoded customers, so a hot working set is
+// served from memory and only misses touch the file. Writes either go to the file at once
+// (write-through) or collect in a buffer that is written when full (write-behind); either way the
+// file only backs this store, since persistence is still the snapshot and journal. Updates
+// append a new record and leave the old one as garbage for compact(). Reads may run concurrently
+// with each other but not with writes, which the service's lock guarantees.
+public class DiskCustomerStore implements CustomerStore {
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MIN_DELETED_BEFORE_COMPACT = 32;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    // Record position in the high 40 bits and length in the low 24; DELETED for an empty slot.
+    private static final int LENGTH_BITS = 24;
+    private static final int MAX_RECORD_BYTES = (1 << LENGTH_BITS) - 1;
+    private static final long DELETED = -1;
+
+    private final Path directory;
+    private final String name;
+    private final int cacheCapacity;
+    private final String cachePolicy;
+    private final boolean writeBehind;
+    private final FileChannel channel;
+    private final RecordCache<Integer, Customer> cache;
+    private final ByteBuffer pending;
+    private long flushedBytes;
+
+    private int[] ids;
+    private long[] records;
+    private int slots;
+    private int deletedSlots;
+    private long garbageBytes;
+
+    // cachePolicy is "lru" or "tinylfu". The scratch file lives in directory and is removed as
+    // soon as it is opened, so it never outlives the process.
+    public DiskCustomerStore(Path directory, int cacheCapacity, String cachePolicy, boolean writeBehind) {
+        this(directory, "customer-store", cacheCapacity, cachePolicy, writeBehind);
+    }
+
+    // The cache is reported in the metrics under name. A store that replaces this one, after a
+    // compaction or a reload, takes over the same name, so each name shows the cache in use; stores
+    // in use side by side, such as one per shard, need names of their own.
+    public DiskCustomerStore(Path directory, String name, int cacheCapacity, String cachePolicy, boolean writeBehind) {
+        this(directory, name, cacheCapacity, cachePolicy, writeBehind, INITIAL_CAPACITY);
+    }
+
+    private DiskCustomerStore(Path directory, String name, int cacheCapacity, String cachePolicy, boolean writeBehind,
+            int capacity) {
+        this.directory = directory;
+        this.name = name;
+        this.cacheCapacity = cacheCapacity;
+        this.cachePolicy = cachePolicy;
+        this.writeBehind = writeBehind;
+        this.cache = RecordCache.create(cachePolicy, cacheCapacity);
+        this.pending = writeBehind ? ByteBuffer.allocate(WRITE_BUFFER_BYTES) : null;
+        capacity = Math.max(capacity, 16);
+        this.ids = new int[capacity];
+        this.records = new long[capacity];
+        try {
+            Files.createDirectories(directory);
+            Path file = Files.createTempFile(directory, "customers-", ".store");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!file.toFile().delete()) {
+                file.toFile().deleteOnExit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create customer store in " + directory, e);
+        }
+        // A store replaced by compaction may still be walked by a cursor, so its file is closed
+        // once the store is unreachable rather than when it is replaced.
+        FileChannel file = channel;
+        CLEANER.register(this, () -> {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // Nothing left to release.
+            }
+        });
+        Metrics.registerCache(name, cache);
+    }
+
+    public RecordCache<Integer, Customer> cache() {
+        return cache;
+    }
+
+    @Override
+    public int slotCount() {
+        return slots;
+    }
+
+    @Override
+    public int liveCount() {
+        return slots - deletedSlots;
+    }
+
+    @Override
+    public int idAt(int slot) {
+        return ids[slot];
+    }
+
+    @Override
+    public Customer get(int slot) {
+        if (slot < 0 || slot >= slots) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of " + slots);
+        }
+        long record = records[slot];
+        if (record == DELETED) {
+            return null;
+        }
+        Customer customer = cache.get(slot);
+        if (customer == null) {
+            customer = decode(ids[slot], read(record));
+            cache.put(slot, customer);
+        }
+        return customer;
+    }
+
+    @Override
+    public int append(Customer customer) {
+        if (slots == ids.length) {
+            grow();
+        }
+        int slot = slots++;
+        ids[slot] = customer.getId();
+        records[slot] = write(encode(customer.getFullName(), customer.getPhone(), customer.getEmail(),
+                customer.getCreatedEpochSecond(), customer.getCreatedNano()));
+        return slot;
+    }
+
+    @Override
+    public void update(int slot, String fullName, String phone, String email) {
+        Customer current = get(slot);
+        if (current == null) {
+            return;
+        }
+        Customer updated = new Customer(current.getId(),
+                fullName != null ? fullName : current.getFullName(),
+                phone != null ? phone : current.getPhone(),
+                email != null ? email : current.getEmail(),
+                current.getCreatedEpochSecond(), current.getCreatedNano());
+        garbageBytes += lengthOf(records[slot]);
+        records[slot] = write(encode(updated.getFullName(), updated.getPhone(), updated.getEmail(),
+                updated.getCreatedEpochSecond(), updated.getCreatedNano()));
+        cache.put(slot, updated);
+    }
+
+    @Override
+    public void delete(int slot) {
+        if (records[slot] != DELETED) {
+            garbageBytes += lengthOf(records[slot]);
+            records[slot] = DELETED;
+            deletedSlots++;
+            cache.remove(slot);
+        }
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        boolean manyHoles = deletedSlots >= MIN_DELETED_BEFORE_COMPACT && deletedSlots * 2 >= slots;
+        boolean mostlyGarbage = garbageBytes >= WRITE_BUFFER_BYTES && garbageBytes * 2 >= fileBytes();
+        return manyHoles || mostlyGarbage;
+    }
+
+    // Copies the live records into a fresh file without decoding them. The new store starts with
+    // a cold cache.
+    @Override
+    public CustomerStore compact() {
+        DiskCustomerStore compacted = new DiskCustomerStore(directory, name, cacheCapacity, cachePolicy, writeBehind,
+                liveCount());
+        for (int slot = 0; slot < slots; slot++) {
+            if (records[slot] == DELETED) {
+                continue;
+            }
+            int target = compacted.slots++;
+            compacted.ids[target] = ids[slot];
+            compacted.records[target] = compacted.write(read(records[slot]));
+        }
+        return compacted;
+    }
+
+    private void grow() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        records = Arrays.copyOf(records, capacity);
+    }
+
+    private long fileBytes() {
+        return flushedBytes + (pending == null ? 0 : pending.position());
+    }
+
+    private long write(byte[] record) {
+        if (record.length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Customer record too large: " + record.length + " bytes");
+        }
+        long position = fileBytes();
+        try {
+            if (pending != null && record.length <= pending.capacity()) {
+                if (pending.remaining() < record.length) {
+                    flush();
+                    position = flushedBytes;
+                }
+                pending.put(record);
+            } else {
+                flush();
+                writeFully(ByteBuffer.wrap(record), flushedBytes);
+                flushedBytes += record.length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write customer store", e);
+        }
+        return (position << LENGTH_BITS) | record.length;
+    }
+
+    private void flush() throws IOException {
+        if (pending == null || pending.position() == 0) {
+            return;
+        }
+        pending.flip();
+        writeFully(pending, flushedBytes);
+        flushedBytes += pending.limit();
+        pending.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Reads with positional reads or absolute gets only, so concurrent readers do not interfere.
+    private byte[] read(long record) {
+        long position = record >>> LENGTH_BITS;
+        byte[] bytes = new byte[lengthOf(record)];
+        if (position >= flushedBytes) {
+            pending.get((int) (position - flushedBytes), bytes);
+            return bytes;
+        }
+        ByteBuffer target = ByteBuffer.wrap(bytes);
+        try {
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("Customer store is truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read customer store", e);
+        }
+        return bytes;
+    }
+
+    private static int lengthOf(long record) {
+        return (int) (record & MAX_RECORD_BYTES);
+    }
+
+    // [createdAt epoch second][createdAt nano, or -1 for none][name][phone][email], each string an
+    // int byte length (-1 for null) and its UTF-8 bytes.
+    private static byte[] encode(String fullName, String phone, String email, long createdSecond, int createdNano) {
+        byte[] name = fullName == null ? null : fullName.getBytes(StandardCharsets.UTF_8);
+        byte[] phoneBytes = phone == null ? null : phone.getBytes(StandardCharsets.UTF_8);
+        byte[] emailBytes = email == null ? null : email.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(12 + encodedLength(name) + encodedLength(phoneBytes) + encodedLength(emailBytes));
+        record.putLong(createdSecond).putInt(createdNano);
+        putString(record, name);
+        putString(record, phoneBytes);
+        putString(record, emailBytes);
+        return record.array();
+    }
+
+    private static Customer decode(int id, byte[] bytes) {
+        ByteBuffer record = ByteBuffer.wrap(bytes);
+        long epochSecond = record.getLong();
+        int nano = record.getInt();
+        String fullName = getString(record);
+        String phone = getString(record);
+        String email = getString(record);
+        return new Customer(id, fullName, phone, email, epochSecond, nano);
+    }
+
+    private static int encodedLength(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer record, byte[] bytes) {
+        if (bytes == null) {
+            record.putInt(-1);
+        } else {
+            record.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+}
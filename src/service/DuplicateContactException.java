@@ -0,0 +1,19 @@
+package service;
+
+// Thrown by addCustomer and updateCustomer on a service that enforces unique contacts when the
+// phone or email already belongs to another customer. Nothing has been changed when it is thrown.
+public class DuplicateContactException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int ownerId;
+
+    DuplicateContactException(String message, int ownerId) {
+        super(message);
+        this.ownerId = ownerId;
+    }
+
+    // The customer that already holds the phone or email.
+    public int getOwnerId() {
+        return ownerId;
+    }
+}
@@ -0,0 +1,462 @@
+package service;
+
+import util.IntSortedSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+// Finds names that are spelled roughly like a query. Names are split into lowercase words, and
+// every distinct word keeps a posting list of the customers using it. Matching works on the
+// vocabulary of distinct words rather than on customers, so its cost follows the number of
+// different words in use, not the number of customers:
+//  - SymSpell: each word is stored under every string left after deleting up to its edit budget
+//    of characters from its first PREFIX_LENGTH characters. Two words within that many edits
+//    share such a deletion, so a query only needs to look up its own deletions and check the
+//    words found with a bounded edit distance.
+//  - Phonetics: each word is also filed under a Metaphone-style sound key, which catches
+//    misspellings that sound alike but are too many edits apart ("Kathryn" and "Catherine").
+// The deletion keys are 64-bit hashes rather than strings to keep the table small; a collision
+// only adds a candidate that the distance check then rejects.
+class FuzzyNameIndex {
+    private static final int PREFIX_LENGTH = 7;
+    private static final int MAX_QUERY_WORDS = 3;
+    private static final int MATCHES_PER_WORD = 8;
+    private static final double PHONETIC_BONUS = 0.1;
+    private static final double PHONETIC_ONLY_SCORE = 0.5;
+    private static final int MAX_KEY_LENGTH = 6;
+
+    private final Map<String, IntSortedSet> postings = new HashMap<>();
+    // Deletion hash to the word holding it, or to a String[] when several words share it.
+    private final Map<Long, Object> deletions = new HashMap<>();
+    private final Map<String, Set<String>> phonetic = new HashMap<>();
+
+    void add(int id, String fullName) {
+        for (String word : words(fullName)) {
+            IntSortedSet ids = postings.get(word);
+            if (ids == null) {
+                ids = new IntSortedSet(1);
+                postings.put(word, ids);
+                addWord(word);
+            }
+            ids.add(id);
+        }
+    }
+
+    void remove(int id, String fullName) {
+        for (String word : words(fullName)) {
+            IntSortedSet ids = postings.get(word);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                postings.remove(word);
+                removeWord(word);
+            }
+        }
+    }
+
+    // Visits the ids of the customers whose names best match the query, best first, until the
+    // visitor returns false. A name scores the sum of how closely its words match the query's
+    // words, so matching more of the query usually counts for more than one close spelling; ties
+    // go in id order. An id may be visited more than once, so the visitor tracks what it has seen.
+    void forEachMatch(String query, MatchVisitor visitor) {
+        List<String> queryWords = words(query);
+        if (queryWords.size() > MAX_QUERY_WORDS) {
+            queryWords = queryWords.subList(0, MAX_QUERY_WORDS);
+        }
+        List<List<WordMatch>> matches = new ArrayList<>(queryWords.size());
+        for (String word : queryWords) {
+            matches.add(matchWord(word));
+        }
+        List<Combination> combinations = new ArrayList<>();
+        combine(matches, 0, new ArrayList<>(), 0, combinations);
+        combinations.sort(Comparator.comparingDouble((Combination combination) -> -combination.score));
+        for (Combination combination : combinations) {
+            double score = combination.score;
+            if (!visitCommon(combination.words, id -> visitor.visit(id, score))) {
+                return;
+            }
+        }
+    }
+
+    // Every vocabulary word within the edit budget of the query word or sounding like it, best
+    // first, capped at MATCHES_PER_WORD.
+    private List<WordMatch> matchWord(String word) {
+        Set<String> candidates = new HashSet<>();
+        int budget = editBudget(word.length());
+        for (long deletion : deletionHashes(prefixOf(word), budget)) {
+            Object held = deletions.get(deletion);
+            if (held instanceof String) {
+                candidates.add((String) held);
+            } else if (held != null) {
+                candidates.addAll(Arrays.asList((String[]) held));
+            }
+        }
+        String key = phoneticKey(word);
+        Set<String> soundAlike = key == null ? null : phonetic.get(key);
+        if (soundAlike != null) {
+            candidates.addAll(soundAlike);
+        }
+        List<WordMatch> matches = new ArrayList<>();
+        for (String candidate : candidates) {
+            int allowed = Math.min(budget, editBudget(candidate.length()));
+            int distance = distance(word, candidate, allowed);
+            boolean soundsAlike = soundAlike != null && soundAlike.contains(candidate);
+            double score;
+            if (distance <= allowed) {
+                score = 1 - (double) distance / Math.max(word.length(), candidate.length())
+                        + (soundsAlike ? PHONETIC_BONUS : 0);
+            } else if (soundsAlike) {
+                score = PHONETIC_ONLY_SCORE;
+            } else {
+                continue;
+            }
+            matches.add(new WordMatch(candidate, score));
+        }
+        matches.sort(Comparator.comparingDouble((WordMatch match) -> -match.score).thenComparing(match -> match.word));
+        return matches.size() > MATCHES_PER_WORD ? matches.subList(0, MATCHES_PER_WORD) : matches;
+    }
+
+    // Builds one combination per choice of a matched word, or none, for each query word.
+    private static void combine(List<List<WordMatch>> matches, int index, List<String> chosen, double score,
+            List<Combination> combinations) {
+        if (index == matches.size()) {
+            if (!chosen.isEmpty()) {
+                combinations.add(new Combination(chosen.toArray(new String[0]), score));
+            }
+            return;
+        }
+        for (WordMatch match : matches.get(index)) {
+            if (chosen.contains(match.word)) {
+                continue;
+            }
+            chosen.add(match.word);
+            combine(matches, index + 1, chosen, score + match.score, combinations);
+            chosen.remove(chosen.size() - 1);
+        }
+        combine(matches, index + 1, chosen, score, combinations);
+    }
+
+    private boolean visitCommon(String[] words, IntPredicate visitor) {
+        List<IntSortedSet> lists = new ArrayList<>(words.length);
+        for (String word : words) {
+            lists.add(postings.get(word));
+        }
+        if (lists.size() == 1) {
+            return lists.get(0).forEach(visitor);
+        }
+        boolean[] stopped = new boolean[1];
+        IntSortedSet.forEachCommon(lists, id -> {
+            if (!visitor.test(id)) {
+                stopped[0] = true;
+                return false;
+            }
+            return true;
+        });
+        return !stopped[0];
+    }
+
+    private void addWord(String word) {
+        for (long deletion : deletionHashes(prefixOf(word), editBudget(word.length()))) {
+            Object held = deletions.putIfAbsent(deletion, word);
+            if (held instanceof String) {
+                deletions.put(deletion, new String[]{(String) held, word});
+            } else if (held != null) {
+                String[] words = (String[]) held;
+                String[] grown = Arrays.copyOf(words, words.length + 1);
+                grown[words.length] = word;
+                deletions.put(deletion, grown);
+            }
+        }
+        String key = phoneticKey(word);
+        if (key != null) {
+            phonetic.computeIfAbsent(key, ignored -> new HashSet<>()).add(word);
+        }
+    }
+
+    private void removeWord(String word) {
+        for (long deletion : deletionHashes(prefixOf(word), editBudget(word.length()))) {
+            Object held = deletions.get(deletion);
+            if (word.equals(held)) {
+                deletions.remove(deletion);
+            } else if (held instanceof String[]) {
+                String[] words = (String[]) held;
+                List<String> remaining = new ArrayList<>(Arrays.asList(words));
+                remaining.remove(word);
+                deletions.put(deletion, remaining.size() == 1 ? remaining.get(0) : remaining.toArray(new String[0]));
+            }
+        }
+        String key = phoneticKey(word);
+        Set<String> soundAlike = key == null ? null : phonetic.get(key);
+        if (soundAlike != null && soundAlike.remove(word) && soundAlike.isEmpty()) {
+            phonetic.remove(key);
+        }
+    }
+
+    private static String prefixOf(String word) {
+        return word.length() > PREFIX_LENGTH ? word.substring(0, PREFIX_LENGTH) : word;
+    }
+
+    // Short words tolerate fewer typos: none up to two letters, one up to five, two beyond.
+    static int editBudget(int length) {
+        if (length <= 2) {
+            return 0;
+        }
+        return length <= 5 ? 1 : 2;
+    }
+
+    // Lowercase runs of letters and digits.
+    static List<String> words(String name) {
+        List<String> words = new ArrayList<>(2);
+        if (name == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= name.length(); i++) {
+            boolean wordChar = i < name.length() && Character.isLetterOrDigit(name.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(NameIndex.normalize(name.substring(start, i)));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Hashes of the word and of every string left by deleting up to budget of its characters.
+    private static Set<Long> deletionHashes(String word, int budget) {
+        Set<Long> hashes = new HashSet<>();
+        Set<String> level = new HashSet<>();
+        level.add(word);
+        hashes.add(hash(word));
+        for (int edits = 0; edits < budget; edits++) {
+            Set<String> next = new HashSet<>();
+            for (String value : level) {
+                for (int i = 0; i < value.length(); i++) {
+                    String deleted = value.substring(0, i) + value.substring(i + 1);
+                    if (next.add(deleted)) {
+                        hashes.add(hash(deleted));
+                    }
+                }
+            }
+            level = next;
+        }
+        return hashes;
+    }
+
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash ^ (hash >>> 31);
+    }
+
+    // Optimal string alignment distance (edits plus adjacent transpositions), giving up with
+    // max + 1 as soon as it must exceed max.
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previousRow = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(row[j] + 1, current[j - 1] + 1), row[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previousRow[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previousRow;
+            previousRow = row;
+            row = current;
+            current = recycled;
+        }
+        return Math.min(row[b.length()], max + 1);
+    }
+
+    // A compact Metaphone code of up to MAX_KEY_LENGTH letters: silent letters are dropped,
+    // letters that sound alike share a code (C/K/Q, S/Z, F/PH/V, J/soft G) and vowels only count
+    // at the start. Returns null for words without Latin letters.
+    static String phoneticKey(String word) {
+        StringBuilder letters = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char ch = Character.toUpperCase(word.charAt(i));
+            if (ch >= 'A' && ch <= 'Z') {
+                letters.append(ch);
+            }
+        }
+        if (letters.length() == 0) {
+            return null;
+        }
+        String w = letters.toString();
+        int start = 0;
+        if (w.startsWith("AE") || w.startsWith("GN") || w.startsWith("KN") || w.startsWith("PN")
+                || w.startsWith("WR")) {
+            start = 1;
+        }
+        StringBuilder key = new StringBuilder(MAX_KEY_LENGTH);
+        if (w.charAt(0) == 'X') {
+            key.append('S');
+            start = 1;
+        } else if (w.startsWith("WH")) {
+            key.append('W');
+            start = 2;
+        }
+        for (int i = start; i < w.length() && key.length() < MAX_KEY_LENGTH; i++) {
+            char ch = w.charAt(i);
+            if (ch != 'C' && i > start && ch == w.charAt(i - 1)) {
+                continue;
+            }
+            char next = i + 1 < w.length() ? w.charAt(i + 1) : 0;
+            char afterNext = i + 2 < w.length() ? w.charAt(i + 2) : 0;
+            char previous = i > 0 ? w.charAt(i - 1) : 0;
+            switch (ch) {
+                case 'A':
+                case 'E':
+                case 'I':
+                case 'O':
+                case 'U':
+                    if (i == start) {
+                        key.append('A');
+                    }
+                    break;
+                case 'B':
+                    if (!(previous == 'M' && next == 0)) {
+                        key.append('B');
+                    }
+                    break;
+                case 'C':
+                    if (next == 'I' && afterNext == 'A' || next == 'H' && previous != 'S') {
+                        key.append('X');
+                    } else if (next == 'I' || next == 'E' || next == 'Y') {
+                        if (previous != 'S') {
+                            key.append('S');
+                        }
+                    } else {
+                        key.append('K');
+                    }
+                    break;
+                case 'D':
+                    key.append(next == 'G' && isSoftening(afterNext) ? 'J' : 'T');
+                    break;
+                case 'G':
+                    if (next == 'H' && !(i + 2 >= w.length() || isVowel(afterNext))) {
+                        break;
+                    }
+                    if (next == 'N' && (i + 2 == w.length() || w.startsWith("ED", i + 2) && i + 4 == w.length())) {
+                        break;
+                    }
+                    if (previous == 'D' && isSoftening(next)) {
+                        break;
+                    }
+                    key.append(isSoftening(next) ? 'J' : 'K');
+                    break;
+                case 'H':
+                    if (isVowel(next) && !(previous == 'C' || previous == 'S' || previous == 'P'
+                            || previous == 'T' || previous == 'G')) {
+                        key.append('H');
+                    }
+                    break;
+                case 'K':
+                    if (previous != 'C') {
+                        key.append('K');
+                    }
+                    break;
+                case 'P':
+                    key.append(next == 'H' ? 'F' : 'P');
+                    break;
+                case 'Q':
+                    key.append('K');
+                    break;
+                case 'S':
+                    if (next == 'H' || next == 'I' && (afterNext == 'O' || afterNext == 'A')) {
+                        key.append('X');
+                    } else {
+                        key.append('S');
+                    }
+                    break;
+                case 'T':
+                    if (next == 'I' && (afterNext == 'O' || afterNext == 'A')) {
+                        key.append('X');
+                    } else if (next == 'H') {
+                        key.append('0');
+                    } else if (!(next == 'C' && afterNext == 'H')) {
+                        key.append('T');
+                    }
+                    break;
+                case 'V':
+                    key.append('F');
+                    break;
+                case 'W':
+                case 'Y':
+                    if (isVowel(next)) {
+                        key.append(ch);
+                    }
+                    break;
+                case 'X':
+                    key.append("KS");
+                    break;
+                case 'Z':
+                    key.append('S');
+                    break;
+                default:
+                    key.append(ch);
+            }
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            key.setLength(MAX_KEY_LENGTH);
+        }
+        return key.length() == 0 ? null : key.toString();
+    }
+
+    private static boolean isVowel(char ch) {
+        return ch == 'A' || ch == 'E' || ch == 'I' || ch == 'O' || ch == 'U';
+    }
+
+    private static boolean isSoftening(char ch) {
+        return ch == 'E' || ch == 'I' || ch == 'Y';
+    }
+
+    interface MatchVisitor {
+        // Called with a matching id and its name's score, higher being closer; false stops the walk.
+        boolean visit(int id, double score);
+    }
+
+    private static final class WordMatch {
+        private final String word;
+        private final double score;
+
+        private WordMatch(String word, double score) {
+            this.word = word;
+            this.score = score;
+        }
+    }
+
+    private static final class Combination {
+        private final String[] words;
+        private final double score;
+
+        private Combination(String[] words, double score) {
+            this.words = words;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package service;
+
+public class ImportResult {
+    private final int imported;
+    private final int invalid;
+    private final int duplicates;
+    private final boolean complete;
+
+    ImportResult(int imported, int invalid, int duplicates, boolean complete) {
+        this.imported = imported;
+        this.invalid = invalid;
+        this.duplicates = duplicates;
+        this.complete = complete;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    // False when the import was interrupted; the counts then cover the batches committed before that.
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return "Imported " + imported + " customers (" + invalid + " invalid, " + duplicates + " duplicates)"
+                + (complete ? "" : "; interrupted before the rest of the file was read");
+    }
+}
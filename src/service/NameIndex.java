@@ -0,0 +1,89 @@
+package service;
+
+import util.IntSortedSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+class NameIndex {
+    static final int GRAM_LENGTH = 3;
+
+    private final Map<Long, IntSortedSet> postings = new HashMap<>();
+
+    void add(int id, String fullName) {
+        String name = fullName == null ? "" : fullName;
+        for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+            postings.computeIfAbsent(gramAt(name, i), key -> new IntSortedSet()).add(id);
+        }
+    }
+
+    void remove(int id, String fullName) {
+        String name = fullName == null ? "" : fullName;
+        for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+            Long gram = gramAt(name, i);
+            IntSortedSet ids = postings.get(gram);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                postings.remove(gram);
+            }
+        }
+    }
+
+    void clear() {
+        postings.clear();
+    }
+
+    // Walks the ids present in every posting list of the needle's trigrams. Candidates still
+    // have to be verified, because sharing all trigrams does not guarantee a substring match.
+    // Returns false when the needle is too short to be answered from the index.
+    boolean forEachCandidate(String normalizedNeedle, IntPredicate visitor) {
+        if (normalizedNeedle.length() < GRAM_LENGTH) {
+            return false;
+        }
+        List<IntSortedSet> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM_LENGTH <= normalizedNeedle.length(); i++) {
+            IntSortedSet ids = postings.get(gramAt(normalizedNeedle, i));
+            if (ids == null) {
+                return true;
+            }
+            lists.add(ids);
+        }
+        IntSortedSet.forEachCommon(lists, visitor);
+        return true;
+    }
+
+    static String normalize(String value) {
+        StringBuilder normalized = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            normalized.append(Character.toLowerCase(value.charAt(i)));
+        }
+        return normalized.toString();
+    }
+
+    // Substring test against an already normalized needle, without lowercasing the haystack into a new string.
+    static boolean containsNormalized(String haystack, String normalizedNeedle) {
+        if (haystack == null) {
+            return normalizedNeedle.isEmpty();
+        }
+        int last = haystack.length() - normalizedNeedle.length();
+        for (int start = 0; start <= last; start++) {
+            int j = 0;
+            while (j < normalizedNeedle.length()
+                    && Character.toLowerCase(haystack.charAt(start + j)) == normalizedNeedle.charAt(j)) {
+                j++;
+            }
+            if (j == normalizedNeedle.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long gramAt(String value, int start) {
+        return ((long) Character.toLowerCase(value.charAt(start)) << 32)
+                | ((long) Character.toLowerCase(value.charAt(start + 1)) << 16)
+                | Character.toLowerCase(value.charAt(start + 2));
+    }
+}
@@ -0,0 +1,88 @@
+package service;
+
+import model.Customer;
+import util.IntIntMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps every customer as a Customer object. An update replaces the slot's object with an edited
+// copy instead of calling its setters, so a customer once handed out never changes underneath its
+// reader and a CustomerSnapshot can keep the old object as the old version. A deleted slot drops
+// its object; its id is kept aside until the next compaction.
+public class ObjectCustomerStore implements CustomerStore {
+    private static final int MIN_DELETED_BEFORE_COMPACT = 32;
+
+    private final List<Customer> customers;
+    private final IntIntMap deletedIds = new IntIntMap();
+
+    public ObjectCustomerStore() {
+        this(0);
+    }
+
+    public ObjectCustomerStore(int expectedSize) {
+        this.customers = new ArrayList<>(expectedSize);
+    }
+
+    @Override
+    public int slotCount() {
+        return customers.size();
+    }
+
+    @Override
+    public int liveCount() {
+        return customers.size() - deletedIds.size();
+    }
+
+    @Override
+    public int idAt(int slot) {
+        Customer customer = customers.get(slot);
+        return customer == null ? deletedIds.get(slot, -1) : customer.getId();
+    }
+
+    @Override
+    public Customer get(int slot) {
+        return customers.get(slot);
+    }
+
+    @Override
+    public int append(Customer customer) {
+        customers.add(customer);
+        return customers.size() - 1;
+    }
+
+    @Override
+    public void update(int slot, String fullName, String phone, String email) {
+        Customer current = customers.get(slot);
+        customers.set(slot, new Customer(current.getId(),
+                fullName != null ? fullName : current.getFullName(),
+                phone != null ? phone : current.getPhone(),
+                email != null ? email : current.getEmail(),
+                current.getCreatedEpochSecond(), current.getCreatedNano()));
+    }
+
+    @Override
+    public void delete(int slot) {
+        Customer removed = customers.set(slot, null);
+        if (removed != null) {
+            deletedIds.put(slot, removed.getId());
+        }
+    }
+
+    @Override
+    public boolean needsCompaction() {
+        int deletedSlots = deletedIds.size();
+        return deletedSlots >= MIN_DELETED_BEFORE_COMPACT && deletedSlots * 2 >= customers.size();
+    }
+
+    @Override
+    public CustomerStore compact() {
+        ObjectCustomerStore compacted = new ObjectCustomerStore(liveCount());
+        for (Customer customer : customers) {
+            if (customer != null) {
+                compacted.customers.add(customer);
+            }
+        }
+        return compacted;
+    }
+}
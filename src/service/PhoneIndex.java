@@ -0,0 +1,114 @@
+package service;
+
+import util.IntSortedSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// Phones are digit strings, so every 1-, 2- and 3-digit gram maps straight to a slot in a
+// fixed array of posting lists (10 + 100 + 1000 entries) with no hashing involved.
+class PhoneIndex {
+    private final IntSortedSet[] unigrams = new IntSortedSet[10];
+    private final IntSortedSet[] bigrams = new IntSortedSet[100];
+    private final IntSortedSet[] trigrams = new IntSortedSet[1000];
+    // Phones that are not pure digits (only possible for hand-edited files) are checked one by one.
+    private final IntSortedSet irregular = new IntSortedSet();
+
+    void add(int id, String phone) {
+        if (!isDigits(phone)) {
+            irregular.add(id);
+            return;
+        }
+        for (int i = 0; i < phone.length(); i++) {
+            int gram = 0;
+            for (int n = 0; n < 3 && i + n < phone.length(); n++) {
+                gram = gram * 10 + (phone.charAt(i + n) - '0');
+                IntSortedSet[] table = tableFor(n + 1);
+                if (table[gram] == null) {
+                    table[gram] = new IntSortedSet();
+                }
+                table[gram].add(id);
+            }
+        }
+    }
+
+    void remove(int id, String phone) {
+        if (!isDigits(phone)) {
+            irregular.remove(id);
+            return;
+        }
+        for (int i = 0; i < phone.length(); i++) {
+            int gram = 0;
+            for (int n = 0; n < 3 && i + n < phone.length(); n++) {
+                gram = gram * 10 + (phone.charAt(i + n) - '0');
+                IntSortedSet ids = tableFor(n + 1)[gram];
+                if (ids != null) {
+                    ids.remove(id);
+                }
+            }
+        }
+    }
+
+    void clear() {
+        clear(unigrams);
+        clear(bigrams);
+        clear(trigrams);
+        irregular.clear();
+    }
+
+    // Visits ids whose phone may contain the fragment. Needles of up to three digits are answered
+    // exactly by a single posting list; longer ones and irregular phones still need verification.
+    void forEachCandidate(String fragment, IntPredicate visitor) {
+        if (!irregular.forEach(visitor)) {
+            return;
+        }
+        if (fragment.isEmpty() || !isDigits(fragment)) {
+            return;
+        }
+        if (fragment.length() <= 3) {
+            IntSortedSet ids = tableFor(fragment.length())[Integer.parseInt(fragment)];
+            if (ids != null) {
+                ids.forEach(visitor);
+            }
+            return;
+        }
+        List<IntSortedSet> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= fragment.length(); i++) {
+            IntSortedSet ids = trigrams[Integer.parseInt(fragment, i, i + 3, 10)];
+            if (ids == null || ids.isEmpty()) {
+                return;
+            }
+            lists.add(ids);
+        }
+        IntSortedSet.forEachCommon(lists, visitor);
+    }
+
+    private IntSortedSet[] tableFor(int gramLength) {
+        if (gramLength == 1) {
+            return unigrams;
+        }
+        return gramLength == 2 ? bigrams : trigrams;
+    }
+
+    private static void clear(IntSortedSet[] table) {
+        for (IntSortedSet ids : table) {
+            if (ids != null) {
+                ids.clear();
+            }
+        }
+    }
+
+    static boolean isDigits(String value) {
+        if (value == null) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
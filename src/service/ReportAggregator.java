@@ -0,0 +1,139 @@
+package service;
+
+import model.Customer;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.function.IntFunction;
+
+// Group counts behind CustomerReport: sign-ups per day, email domains and phone prefixes. Counts
+// can be built from a store with a parallel fork-join scan, and can also be kept up to date by the
+// service as customers change, in which case a report only copies the groups. Not thread-safe;
+// the service guards a maintained aggregator with its lock.
+class ReportAggregator {
+    static final int PHONE_PREFIX_DIGITS = 3;
+    private static final int SLOTS_PER_TASK = 8192;
+
+    private final Map<LocalDate, Long> signupsByDay = new HashMap<>();
+    private final Map<String, Long> emailDomains = new HashMap<>();
+    private final Map<String, Long> phonePrefixes = new HashMap<>();
+
+    // Scans the store in parallel. With a lock, each task holds it while reading its slots, the
+    // way a cursor reads a page, so the result is weakly consistent with concurrent changes.
+    static ReportAggregator scan(CustomerStore store, Lock readLock) {
+        return scan(store.slotCount(), store::get, readLock);
+    }
+
+    // Scans slots 0 to slotCount read through bySlot, e.g. a snapshot's, in the same way.
+    static ReportAggregator scan(int slotCount, IntFunction<Customer> bySlot, Lock readLock) {
+        return ForkJoinPool.commonPool().invoke(new ScanTask(bySlot, readLock, 0, slotCount));
+    }
+
+    void add(Customer customer) {
+        countSignup(customer, 1);
+        countContact(customer.getPhone(), customer.getEmail(), 1);
+    }
+
+    void remove(Customer customer) {
+        countSignup(customer, -1);
+        countContact(customer.getPhone(), customer.getEmail(), -1);
+    }
+
+    // Days are taken from the epoch second, which avoids building a LocalDateTime per customer.
+    void countSignup(Customer customer, long delta) {
+        if (customer.getCreatedNano() >= 0) {
+            count(signupsByDay, LocalDate.ofEpochDay(Math.floorDiv(customer.getCreatedEpochSecond(), 86_400)), delta);
+        }
+    }
+
+    // A null phone or email is left uncounted, so an update can move just the field it changed.
+    void countContact(String phone, String email, long delta) {
+        if (phone != null) {
+            count(phonePrefixes, phonePrefix(phone), delta);
+        }
+        if (email != null) {
+            count(emailDomains, emailDomain(email), delta);
+        }
+    }
+
+    Map<LocalDate, Long> signupsByDay() {
+        return signupsByDay;
+    }
+
+    Map<String, Long> emailDomains() {
+        return emailDomains;
+    }
+
+    Map<String, Long> phonePrefixes() {
+        return phonePrefixes;
+    }
+
+    ReportAggregator merge(ReportAggregator other) {
+        other.signupsByDay.forEach((day, count) -> count(signupsByDay, day, count));
+        other.emailDomains.forEach((domain, count) -> count(emailDomains, domain, count));
+        other.phonePrefixes.forEach((prefix, count) -> count(phonePrefixes, prefix, count));
+        return this;
+    }
+
+    static String emailDomain(String email) {
+        int at = email.lastIndexOf('@');
+        return at < 0 ? "" : email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    static String phonePrefix(String phone) {
+        return phone.length() <= PHONE_PREFIX_DIGITS ? phone : phone.substring(0, PHONE_PREFIX_DIGITS);
+    }
+
+    private static <K> void count(Map<K, Long> counts, K key, long delta) {
+        counts.merge(key, delta, (current, change) -> current + change == 0 ? null : current + change);
+    }
+
+    private static final class ScanTask extends RecursiveTask<ReportAggregator> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient IntFunction<Customer> bySlot;
+        private final transient Lock readLock;
+        private final int from;
+        private final int to;
+
+        private ScanTask(IntFunction<Customer> bySlot, Lock readLock, int from, int to) {
+            this.bySlot = bySlot;
+            this.readLock = readLock;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ReportAggregator compute() {
+            if (to - from > SLOTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                ScanTask right = new ScanTask(bySlot, readLock, middle, to);
+                right.fork();
+                ReportAggregator left = new ScanTask(bySlot, readLock, from, middle).compute();
+                return left.merge(right.join());
+            }
+            ReportAggregator aggregator = new ReportAggregator();
+            if (readLock != null) {
+                readLock.lock();
+            }
+            try {
+                for (int slot = from; slot < to; slot++) {
+                    Customer customer = bySlot.apply(slot);
+                    if (customer != null) {
+                        aggregator.add(customer);
+                    }
+                }
+            } finally {
+                if (readLock != null) {
+                    readLock.unlock();
+                }
+            }
+            return aggregator;
+        }
+    }
+}
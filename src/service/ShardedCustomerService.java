@@ -0,0 +1,582 @@
+package service;
+
+import model.Customer;
+import model.CustomerDraft;
+import util.Metrics;
+import util.Shards;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+// Splits the customers by id over several CustomerService shards, each with its own store, indexes
+// and lock, the same way a sharded FileStorage splits its files. Loading builds the shards in
+// parallel on the fork-join pool. Lookups, updates and deletes by id go to one shard. Searches and
+// sorted listings run on every shard at once and merge the results: searches in id order, fuzzy
+// matches best first, listings in their sort order. Ids are handed out here: a change takes this
+// service's write lock only to allocate its id and reserve its phone and email in one contact index
+// across all shards, then takes its shard's write lock before letting go, and writes and journals
+// the change under the shard's lock alone. Changes on different shards thus run side by side. A
+// report or snapshot takes this service's read lock, so no change can start, and each shard's
+// snapshot waits for the change already under way there, so the shards are opened at a single
+// moment. Metrics count a search once for each shard it ran on.
+public class ShardedCustomerService implements CustomerDirectory {
+    private static final Comparator<Customer> BY_ID = Comparator.comparingInt(Customer::getId);
+
+    private final List<CustomerService> shards;
+    private final boolean trackReport;
+    private final boolean uniqueContacts;
+
+    // Guards contacts and nextId. Writers take a shard's lock while holding it, never the other way round.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ContactIndex contacts;
+    private int nextId;
+
+    // The options mean what they do for CustomerService. Shard i gets its own store from
+    // storeFactories.apply(i), so stores can be told apart, e.g. in the metrics.
+    public ShardedCustomerService(List<Customer> initialCustomers, int shardCount,
+            IntFunction<Supplier<CustomerStore>> storeFactories, boolean trackReport, boolean uniqueContacts) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("A sharded service needs at least one shard");
+        }
+        this.trackReport = trackReport;
+        this.uniqueContacts = uniqueContacts;
+        List<Customer> customers = initialCustomers == null ? Collections.emptyList() : initialCustomers;
+        ForkJoinTask<ContactIndex> indexing = ForkJoinPool.commonPool().submit(() -> indexContacts(customers));
+        List<List<Customer>> parts = partition(customers, shardCount);
+        this.shards = Collections.unmodifiableList(fanOut(range(shardCount),
+                shard -> new CustomerService(parts.get(shard), storeFactories.apply(shard), trackReport, false)));
+        this.contacts = indexing.join();
+        this.nextId = nextIdAfter(customers);
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public void replaceCustomers(List<Customer> newCustomers) {
+        List<Customer> customers = newCustomers == null ? Collections.emptyList() : newCustomers;
+        lock.writeLock().lock();
+        try {
+            ForkJoinTask<ContactIndex> indexing = ForkJoinPool.commonPool().submit(() -> indexContacts(customers));
+            List<List<Customer>> parts = partition(customers, shards.size());
+            fanOut(range(shards.size()), index -> {
+                shards.get(index).replaceCustomers(parts.get(index));
+                return null;
+            });
+            contacts = indexing.join();
+            nextId = nextIdAfter(customers);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer addCustomer(String fullName, String phone, String email, Consumer<Customer> persist) {
+        long started = Metrics.start(Metrics.Op.ADD);
+        try {
+            Customer customer;
+            CustomerService shard;
+            lock.writeLock().lock();
+            try {
+                if (uniqueContacts) {
+                    contacts.requireFree(-1, phone, email);
+                }
+                customer = new Customer(nextId++, fullName, phone, email);
+                contacts.add(customer.getId(), phone, email);
+                shard = shardOf(customer.getId());
+                shard.writeLock().lock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            boolean written = false;
+            try {
+                shard.insert(Collections.singletonList(customer));
+                persist.accept(customer);
+                written = true;
+            } finally {
+                shard.writeLock().unlock();
+                if (!written) {
+                    resync(customer.getId(), phone, email);
+                }
+            }
+            return customer;
+        } finally {
+            Metrics.stop(Metrics.Op.ADD, started);
+        }
+    }
+
+    // Runs the same pipeline as CustomerService.importCustomers. Each batch is checked against the
+    // contacts of every shard, and its new customers go to their shards in parallel.
+    @Override
+    public ImportResult importCustomers(Iterator<List<CustomerDraft>> batches, Consumer<List<Customer>> persist) {
+        return CustomerService.importBatches(batches, this::commit, persist);
+    }
+
+    @Override
+    public Customer updateCustomer(int id, String newFullName, String newPhone, String newEmail,
+            Consumer<Customer> persist) {
+        CustomerService shard = shardOf(id);
+        lock.writeLock().lock();
+        try {
+            Customer current = shard.peek(id);
+            if (current == null) {
+                return null;
+            }
+            if (uniqueContacts) {
+                contacts.requireFree(id, newPhone, newEmail);
+            }
+            if (newPhone != null || newEmail != null) {
+                contacts.remove(id, newPhone != null ? current.getPhone() : null,
+                        newEmail != null ? current.getEmail() : null);
+                contacts.add(id, newPhone, newEmail);
+            }
+            shard.writeLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Customer updated = null;
+        try {
+            updated = shard.updateCustomer(id, newFullName, newPhone, newEmail, persist);
+        } finally {
+            shard.writeLock().unlock();
+            if (updated == null) {
+                resync(id, newPhone, newEmail);
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public boolean deleteCustomer(int id, IntConsumer persist) {
+        CustomerService shard = shardOf(id);
+        lock.writeLock().lock();
+        try {
+            Customer current = shard.peek(id);
+            if (current == null) {
+                return false;
+            }
+            contacts.remove(id, current.getPhone(), current.getEmail());
+            shard.writeLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        boolean deleted = false;
+        try {
+            deleted = shard.deleteCustomer(id, persist);
+        } finally {
+            shard.writeLock().unlock();
+            if (!deleted) {
+                resync(id, null, null);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public Customer findById(int id) {
+        return shardOf(id).findById(id);
+    }
+
+    @Override
+    public List<Customer> searchByName(String name) {
+        return mergeById(fanOut(shards, shard -> shard.searchByName(name)));
+    }
+
+    // Each shard ranks its own best matches; they are merged by score, ties in id order.
+    @Override
+    public List<Customer> searchByNameFuzzy(String name, int limit) {
+        List<List<ScoredCustomer>> perShard = fanOut(shards, shard -> {
+            List<ScoredCustomer> matches = new ArrayList<>();
+            shard.forEachFuzzyMatch(name, limit, (customer, score) -> matches.add(new ScoredCustomer(customer, score)));
+            return matches;
+        });
+        List<ScoredCustomer> matches = new ArrayList<>();
+        perShard.forEach(matches::addAll);
+        matches.sort(Comparator.comparingDouble((ScoredCustomer match) -> -match.score)
+                .thenComparingInt(match -> match.customer.getId()));
+        List<Customer> results = new ArrayList<>(Math.min(matches.size(), Math.max(limit, 0)));
+        for (int i = 0; i < matches.size() && results.size() < limit; i++) {
+            results.add(matches.get(i).customer);
+        }
+        return results;
+    }
+
+    @Override
+    public List<Customer> searchByPhone(String phone) {
+        return mergeById(fanOut(shards, shard -> shard.searchByPhone(phone)));
+    }
+
+    @Override
+    public List<Customer> findByEmail(String email) {
+        long started = Metrics.start(Metrics.Op.FIND_BY_CONTACT);
+        lock.readLock().lock();
+        try {
+            return lookupAll(contacts.emailOwners(email));
+        } finally {
+            lock.readLock().unlock();
+            Metrics.stop(Metrics.Op.FIND_BY_CONTACT, started);
+        }
+    }
+
+    @Override
+    public List<Customer> findByPhoneExact(String phone) {
+        long started = Metrics.start(Metrics.Op.FIND_BY_CONTACT);
+        lock.readLock().lock();
+        try {
+            return lookupAll(contacts.phoneOwners(phone));
+        } finally {
+            lock.readLock().unlock();
+            Metrics.stop(Metrics.Op.FIND_BY_CONTACT, started);
+        }
+    }
+
+    // Merges the shards' cursors in id order; as weakly consistent as each of them.
+    @Override
+    public Iterator<Customer> openCursor() {
+        List<Iterator<Customer>> cursors = new ArrayList<>(shards.size());
+        for (CustomerService shard : shards) {
+            cursors.add(shard.openCursor());
+        }
+        return merge(cursors, Customer::getId, Comparator.naturalOrder());
+    }
+
+    // The shards' snapshots are opened under this service's read lock, so together they show one
+    // moment; iterating merges them in id order.
+    @Override
+    public CustomerSnapshot openSnapshot() {
+        List<CustomerSnapshot> parts = new ArrayList<>(shards.size());
+        lock.readLock().lock();
+        try {
+            for (CustomerService shard : shards) {
+                parts.add(shard.openSnapshot());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ShardedSnapshot(parts);
+    }
+
+    @Override
+    public List<Customer> listByName() {
+        return collect(merge(iterators(fanOut(shards, CustomerService::listByName)),
+                customer -> SortedViews.nameKey(customer.getFullName()), Comparator.naturalOrder()));
+    }
+
+    @Override
+    public List<Customer> listByNewest() {
+        return collect(merge(iterators(fanOut(shards, CustomerService::listByNewest)),
+                customer -> customer, SortedViews.NEWEST));
+    }
+
+    @Override
+    public int getTotalCustomers() {
+        int total = 0;
+        for (CustomerService shard : shards) {
+            total += shard.getTotalCustomers();
+        }
+        return total;
+    }
+
+    // The shards' groups are merged, and the duplicates come from the contact index across shards,
+    // which a single shard's index would miss. Without trackReport every shard's snapshot is
+    // scanned at once, each in parallel as CustomerService.report does.
+    @Override
+    public CustomerReport report() {
+        long started = Metrics.start(Metrics.Op.REPORT);
+        int total = 0;
+        Map<String, Integer> duplicatePhones;
+        Map<String, Integer> duplicateEmails;
+        ReportAggregator groups = null;
+        List<StoreSnapshot> snapshots = new ArrayList<>(shards.size());
+        lock.readLock().lock();
+        try {
+            duplicatePhones = contacts.duplicatePhones();
+            duplicateEmails = contacts.duplicateEmails();
+            if (trackReport) {
+                groups = new ReportAggregator();
+                for (CustomerService shard : shards) {
+                    groups.merge(shard.copyTrackedGroups());
+                    total += shard.getTotalCustomers();
+                }
+            } else {
+                for (CustomerService shard : shards) {
+                    StoreSnapshot snapshot = shard.openStoreSnapshot();
+                    snapshots.add(snapshot);
+                    total += snapshot.size();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (groups == null) {
+            try {
+                groups = new ReportAggregator();
+                for (ReportAggregator part : fanOut(snapshots, StoreSnapshot::groups)) {
+                    groups.merge(part);
+                }
+            } finally {
+                snapshots.forEach(StoreSnapshot::close);
+            }
+        }
+        CustomerReport report = new CustomerReport(total, groups, duplicatePhones, duplicateEmails);
+        Metrics.stop(Metrics.Op.REPORT, started);
+        return report;
+    }
+
+    private CustomerService shardOf(int id) {
+        return shards.get(Shards.of(id, shards.size()));
+    }
+
+    private List<Customer> commit(List<CustomerDraft> drafts) {
+        List<Customer> added = new ArrayList<>(drafts.size());
+        lock.writeLock().lock();
+        try {
+            List<List<Customer>> parts = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                parts.add(new ArrayList<>());
+            }
+            for (CustomerDraft draft : drafts) {
+                if (contacts.containsPhone(draft.getPhone()) || contacts.containsEmail(draft.getEmail())) {
+                    continue;
+                }
+                Customer customer = draft.toCustomer(nextId++);
+                contacts.add(customer.getId(), customer.getPhone(), customer.getEmail());
+                parts.get(Shards.of(customer.getId(), shards.size())).add(customer);
+                added.add(customer);
+            }
+            fanOut(range(shards.size()), index -> {
+                shards.get(index).insert(parts.get(index));
+                return null;
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return added;
+    }
+
+    // Puts the contact index back in line with the shard after a write that failed part way: the
+    // contacts reserved for it are dropped and whatever the shard holds for the id is indexed.
+    private void resync(int id, String reservedPhone, String reservedEmail) {
+        lock.writeLock().lock();
+        try {
+            contacts.remove(id, reservedPhone, reservedEmail);
+            Customer actual = shardOf(id).peek(id);
+            if (actual != null) {
+                contacts.add(id, actual.getPhone(), actual.getEmail());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called under the read lock, so no owner's change can start meanwhile, and peek waits for one
+    // already under way in its shard.
+    private List<Customer> lookupAll(int[] ids) {
+        List<Customer> customers = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Customer customer = shardOf(id).peek(id);
+            if (customer != null) {
+                customers.add(customer);
+            }
+        }
+        return customers;
+    }
+
+    private static List<Integer> range(int count) {
+        List<Integer> indexes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            indexes.add(i);
+        }
+        return indexes;
+    }
+
+    // Applies work to every item, all but the first on the fork-join pool, and returns the results
+    // in the same order.
+    private static <S, T> List<T> fanOut(List<S> items, Function<S, T> work) {
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(items.size());
+        for (int i = 1; i < items.size(); i++) {
+            S item = items.get(i);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> work.apply(item)));
+        }
+        List<T> results = new ArrayList<>(items.size());
+        if (!items.isEmpty()) {
+            results.add(work.apply(items.get(0)));
+        }
+        for (ForkJoinTask<T> task : tasks) {
+            results.add(task.join());
+        }
+        return results;
+    }
+
+    // Each part is sorted by id. A shard's slots then stay in id order, since ids handed out later
+    // only grow and updates and compaction keep slots in place, so cursors and snapshots can be
+    // merged by id. The sort is stable, so a duplicated id keeps its first occurrence first.
+    private static List<List<Customer>> partition(List<Customer> customers, int shardCount) {
+        List<List<Customer>> parts = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            parts.add(new ArrayList<>(customers.size() / shardCount + 1));
+        }
+        for (Customer customer : customers) {
+            parts.get(Shards.of(customer.getId(), shardCount)).add(customer);
+        }
+        for (List<Customer> part : parts) {
+            part.sort(BY_ID);
+        }
+        return parts;
+    }
+
+    private static ContactIndex indexContacts(List<Customer> customers) {
+        ContactIndex index = new ContactIndex();
+        for (Customer customer : customers) {
+            index.add(customer.getId(), customer.getPhone(), customer.getEmail());
+        }
+        return index;
+    }
+
+    private static int nextIdAfter(List<Customer> customers) {
+        int maxId = 0;
+        for (Customer customer : customers) {
+            maxId = Math.max(maxId, customer.getId());
+        }
+        return maxId + 1;
+    }
+
+    // A shard returns its matches in slot order. That is id order as partition keeps it, but each
+    // list is sorted anyway so the merge does not rest on it; a list already in order sorts in one pass.
+    private static List<Customer> mergeById(List<List<Customer>> perShard) {
+        for (List<Customer> matches : perShard) {
+            matches.sort(BY_ID);
+        }
+        return collect(merge(iterators(perShard), Customer::getId, Comparator.naturalOrder()));
+    }
+
+    private static List<Iterator<Customer>> iterators(List<List<Customer>> lists) {
+        List<Iterator<Customer>> iterators = new ArrayList<>(lists.size());
+        for (List<Customer> list : lists) {
+            iterators.add(list.iterator());
+        }
+        return iterators;
+    }
+
+    private static List<Customer> collect(Iterator<Customer> customers) {
+        List<Customer> list = new ArrayList<>();
+        customers.forEachRemaining(list::add);
+        return list;
+    }
+
+    // Merges iterators that are each in key order, then id order, into one in that order. Each
+    // customer's key is taken once, when it reaches the head of its iterator.
+    private static <K> Iterator<Customer> merge(List<Iterator<Customer>> parts, Function<Customer, K> key,
+            Comparator<? super K> order) {
+        Comparator<Head<K>> byHead = Comparator.comparing((Head<K> head) -> head.key, order)
+                .thenComparingInt(head -> head.customer.getId());
+        PriorityQueue<Head<K>> heads = new PriorityQueue<>(Math.max(1, parts.size()), byHead);
+        for (Iterator<Customer> part : parts) {
+            Head<K> head = new Head<>(part, key);
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Customer next() {
+                Head<K> head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                Customer customer = head.customer;
+                if (head.advance()) {
+                    heads.add(head);
+                }
+                return customer;
+            }
+        };
+    }
+
+    private static final class Head<K> {
+        private final Iterator<Customer> rest;
+        private final Function<Customer, K> keyOf;
+        private Customer customer;
+        private K key;
+
+        private Head(Iterator<Customer> rest, Function<Customer, K> keyOf) {
+            this.rest = rest;
+            this.keyOf = keyOf;
+        }
+
+        private boolean advance() {
+            if (!rest.hasNext()) {
+                return false;
+            }
+            customer = rest.next();
+            key = keyOf.apply(customer);
+            return true;
+        }
+    }
+
+    private static final class ScoredCustomer {
+        private final Customer customer;
+        private final double score;
+
+        private ScoredCustomer(Customer customer, double score) {
+            this.customer = customer;
+            this.score = score;
+        }
+    }
+
+    private static final class ShardedSnapshot implements CustomerSnapshot {
+        private final List<CustomerSnapshot> parts;
+
+        private ShardedSnapshot(List<CustomerSnapshot> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (CustomerSnapshot part : parts) {
+                size += part.size();
+            }
+            return size;
+        }
+
+        @Override
+        public Customer find(int id) {
+            return parts.get(Shards.of(id, parts.size())).find(id);
+        }
+
+        @Override
+        public Iterator<Customer> iterator() {
+            List<Iterator<Customer>> iterators = new ArrayList<>(parts.size());
+            for (CustomerSnapshot part : parts) {
+                iterators.add(part.iterator());
+            }
+            return merge(iterators, Customer::getId, Comparator.naturalOrder());
+        }
+
+        @Override
+        public void close() {
+            parts.forEach(CustomerSnapshot::close);
+        }
+    }
+}
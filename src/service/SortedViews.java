@@ -0,0 +1,109 @@
+package service;
+
+import model.Customer;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Keeps customer ids ordered by name and by creation time as they change, so a sorted listing is a
+// walk over a skip list rather than a sort. Ties fall back to the id, which matches insertion order
+// for customers created through the service. The views hold ids rather than customers so a store
+// that materializes customers on demand does not have to keep them alive here; the service resolves
+// the ids as it walks. The skip lists can be iterated without the service lock while writers keep
+// updating them.
+class SortedViews {
+    private static final Comparator<NameKey> NAME_ORDER =
+            Comparator.comparing((NameKey key) -> key.sortKey).thenComparingInt(key -> key.id);
+    // Newest first, customers without a creation time last; ties are left to the caller.
+    static final Comparator<Customer> NEWEST = (a, b) -> newestFirst(
+            a.getCreatedEpochSecond(), a.getCreatedNano(), b.getCreatedEpochSecond(), b.getCreatedNano());
+    private static final Comparator<TimeKey> NEWEST_FIRST = (a, b) -> {
+        int byTime = newestFirst(a.createdSecond, a.createdNano, b.createdSecond, b.createdNano);
+        return byTime != 0 ? byTime : Integer.compare(a.id, b.id);
+    };
+
+    private final ConcurrentSkipListSet<NameKey> byName = new ConcurrentSkipListSet<>(NAME_ORDER);
+    private final ConcurrentSkipListSet<TimeKey> byNewest = new ConcurrentSkipListSet<>(NEWEST_FIRST);
+
+    void add(Customer customer) {
+        byName.add(new NameKey(customer.getFullName(), customer.getId()));
+        byNewest.add(new TimeKey(customer));
+    }
+
+    void remove(Customer customer) {
+        byName.remove(new NameKey(customer.getFullName(), customer.getId()));
+        byNewest.remove(new TimeKey(customer));
+    }
+
+    void rename(int id, String oldFullName, String newFullName) {
+        byName.remove(new NameKey(oldFullName, id));
+        byName.add(new NameKey(newFullName, id));
+    }
+
+    // What the name order compares, before the id.
+    static String nameKey(String fullName) {
+        return fullName == null ? "" : fullName.toLowerCase();
+    }
+
+    // Creation times as Customer keeps them, a nano of -1 meaning none.
+    private static int newestFirst(long second, int nano, long otherSecond, int otherNano) {
+        if (nano < 0 || otherNano < 0) {
+            return Boolean.compare(nano < 0, otherNano < 0);
+        }
+        int bySecond = Long.compare(otherSecond, second);
+        return bySecond != 0 ? bySecond : Integer.compare(otherNano, nano);
+    }
+
+    PrimitiveIterator.OfInt byName() {
+        return ids(byName.iterator());
+    }
+
+    PrimitiveIterator.OfInt byNewest() {
+        return ids(byNewest.iterator());
+    }
+
+    private static PrimitiveIterator.OfInt ids(Iterator<? extends Key> keys) {
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                return keys.next().id;
+            }
+        };
+    }
+
+    private abstract static class Key {
+        final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final class NameKey extends Key {
+        private final String sortKey;
+
+        private NameKey(String fullName, int id) {
+            super(id);
+            // Lowercased names repeat as often as the names do, so they are shared the same way.
+            this.sortKey = Customer.NAMES.intern(nameKey(fullName));
+        }
+    }
+
+    private static final class TimeKey extends Key {
+        private final long createdSecond;
+        private final int createdNano;
+
+        private TimeKey(Customer customer) {
+            super(customer.getId());
+            this.createdSecond = customer.getCreatedEpochSecond();
+            this.createdNano = customer.getCreatedNano();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package service;
+
+import model.Customer;
+import util.IntIntMap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+
+// The CustomerSnapshot of one CustomerService. Opening one copies nothing: it pins the store, its
+// slot count and its id positions as they are. Until it is closed, the service saves the old value
+// of a slot the first time a writer changes or deletes it, so the snapshot keeps reading the old
+// version while writers carry on; its cost grows with the number of customers changed meanwhile,
+// not with the number of customers. Customers added later sit beyond the pinned slot count and are
+// not seen. After compaction or a reload the pinned store is no longer written at all. Reads take
+// the service's read lock a page at a time, like a cursor, and may run on any thread.
+class StoreSnapshot implements CustomerSnapshot {
+    private final CustomerService service;
+    private final Lock readLock;
+    private final CustomerStore store;
+    private final IntIntMap positions;
+    private final int slots;
+    private final int size;
+    // Old values of the slots changed since the snapshot was opened, null for a slot that was
+    // already empty, and the positions of ids deleted since. Written under the service's write
+    // lock and read under its read lock.
+    private final Map<Integer, Customer> before = new HashMap<>();
+    private final Map<Integer, Integer> deletedPositions = new HashMap<>();
+    private volatile boolean closed;
+
+    StoreSnapshot(CustomerService service, Lock readLock, CustomerStore store, IntIntMap positions) {
+        this.service = service;
+        this.readLock = readLock;
+        this.store = store;
+        this.positions = positions;
+        this.slots = store.slotCount();
+        this.size = store.liveCount();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Customer find(int id) {
+        checkOpen();
+        readLock.lock();
+        try {
+            int slot = positions.get(id, -1);
+            if (slot < 0) {
+                slot = deletedPositions.getOrDefault(id, -1);
+            }
+            return slot < 0 || slot >= slots ? null : atSlot(slot);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Walks the customers in slot order, a page per read lock.
+    @Override
+    public Iterator<Customer> iterator() {
+        checkOpen();
+        return new Iterator<>() {
+            private final Customer[] buffer = new Customer[CustomerCursor.PAGE_SIZE];
+            private int position;
+            private int buffered;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == buffered && position < slots) {
+                    fill();
+                }
+                return next < buffered;
+            }
+
+            @Override
+            public Customer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Customer customer = buffer[next];
+                buffer[next++] = null;
+                return customer;
+            }
+
+            private void fill() {
+                checkOpen();
+                buffered = 0;
+                next = 0;
+                readLock.lock();
+                try {
+                    int end = Math.min(slots, position + CustomerCursor.PAGE_SIZE);
+                    for (; position < end; position++) {
+                        Customer customer = atSlot(position);
+                        if (customer != null) {
+                            buffer[buffered++] = customer;
+                        }
+                    }
+                } finally {
+                    readLock.unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            service.release(this);
+        }
+    }
+
+    int slotCount() {
+        return slots;
+    }
+
+    // Scans the snapshot into report groups in parallel, a page of slots per task under the read lock.
+    ReportAggregator groups() {
+        return ReportAggregator.scan(slots, this::atSlot, readLock);
+    }
+
+    // The customer in the slot as of the snapshot, or null. Callers hold the read lock.
+    Customer atSlot(int slot) {
+        Customer old = before.get(slot);
+        if (old != null || before.containsKey(slot)) {
+            return old;
+        }
+        return store.get(slot);
+    }
+
+    // Called under the write lock before a writer changes the slot in the given store.
+    void preserve(CustomerStore changed, int slot, int id, boolean deleting) {
+        if (changed != store || slot >= slots) {
+            return;
+        }
+        if (!before.containsKey(slot)) {
+            before.put(slot, store.get(slot));
+        }
+        if (deleting) {
+            deletedPositions.put(id, slot);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A reusable CharSequence over a field's bytes, so a loader can hand the field to Customer without
+// building a String for it first: Customer copies out only what it keeps, and a name it already
+// holds comes out of its dictionary without any copy. Only ASCII fits, since each byte is
+// taken as one char; loaders decode anything else into a String as before.
+final class AsciiChars implements CharSequence {
+    private byte[] bytes = new byte[64];
+    private int length;
+
+    // Copies length bytes from source starting at offset, leaving its position alone. Returns
+    // false if any of them is not ASCII, in which case the contents are undefined.
+    boolean set(ByteBuffer source, int offset, int length) {
+        if (length > bytes.length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        source.get(offset, bytes, 0, length);
+        this.length = length;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + length);
+        }
+        return (char) bytes[index];
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        if (start < 0 || start > end || end > length) {
+            throw new IndexOutOfBoundsException("Range " + start + "-" + end + " out of " + length);
+        }
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,307 @@
+package storage;
+
+import model.Customer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Layout: header [magic][version][record count], then one record per customer
+// [id][createdAt epoch second][createdAt nano][name][phone][email] where each string is an int
+// byte length (-1 for null) followed by UTF-8 bytes, then a CRC32C of the records. The count is
+// filled in once all records are written, so the customers can be streamed in a single pass.
+// Version 2 adds an index between the records and the checksum: one [id][record offset] entry per
+// record sorted by id, then the number of distinct ids and the offset of the index itself, so
+// LazySnapshot can find a customer without reading the records. The checksum covers the index too.
+class BinarySnapshot {
+    static final int MAGIC = 0x43555354;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 16;
+    static final int INDEX_ENTRY_BYTES = 12;
+    // The distinct id count and index offset that follow the index.
+    static final int FOOTER_BYTES = 12;
+    private static final int WRITE_BUFFER_BYTES = 4 << 20;
+    private static final long READ_WINDOW_BYTES = 256L << 20;
+
+    // Returns the number of customers written.
+    static int write(Path path, Iterable<Customer> customers) throws IOException {
+        return write(path, customers, WRITE_BUFFER_BYTES);
+    }
+
+    // bufferBytes bounds the largest record; small files can get by with a smaller buffer.
+    static int write(Path path, Iterable<Customer> customers, int bufferBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.position(HEADER_BYTES);
+            Writer writer = new Writer(channel, bufferBytes);
+            int count = 0;
+            int[] ids = new int[1024];
+            long[] offsets = new long[1024];
+            for (Customer customer : customers) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                writer.ensure(16);
+                ids[count] = customer.getId();
+                offsets[count] = writer.offset();
+                count++;
+                writer.buffer.putInt(customer.getId());
+                writer.buffer.putLong(customer.getCreatedEpochSecond());
+                writer.buffer.putInt(customer.getCreatedNano());
+                writer.putString(customer.getFullName());
+                writer.putString(customer.getPhone());
+                writer.putString(customer.getEmail());
+            }
+            writeIndex(writer, ids, offsets, count);
+            writer.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(4).putInt((int) writer.crc.getValue());
+            trailer.flip();
+            while (trailer.hasRemaining()) {
+                channel.write(trailer);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+            return count;
+        }
+    }
+
+    private static void writeIndex(Writer writer, int[] ids, long[] offsets, int count) throws IOException {
+        long indexOffset = writer.offset();
+        int distinct = 0;
+        boolean sorted = true;
+        for (int i = 1; i < count && sorted; i++) {
+            sorted = ids[i - 1] <= ids[i];
+        }
+        if (sorted) {
+            for (int i = 0; i < count; i++) {
+                writer.ensure(INDEX_ENTRY_BYTES);
+                writer.buffer.putInt(ids[i]).putLong(offsets[i]);
+                if (i == 0 || ids[i] != ids[i - 1]) {
+                    distinct++;
+                }
+            }
+        } else {
+            // Sort (id, record number) pairs packed into longs; the record number keeps ties stable.
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int previous = 0;
+            for (long entry : order) {
+                int record = (int) entry;
+                writer.ensure(INDEX_ENTRY_BYTES);
+                writer.buffer.putInt(ids[record]).putLong(offsets[record]);
+                if (distinct == 0 || ids[record] != previous) {
+                    distinct++;
+                }
+                previous = ids[record];
+            }
+        }
+        writer.ensure(FOOTER_BYTES);
+        writer.buffer.putInt(distinct).putLong(indexOffset);
+    }
+
+    static List<Customer> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + 4) {
+                throw new IOException("Snapshot is truncated: " + path);
+            }
+            verifyChecksum(channel, HEADER_BYTES, size - 4);
+
+            Reader reader = new Reader(channel, size - 4);
+            reader.ensure(HEADER_BYTES);
+            if (reader.window.getInt() != MAGIC) {
+                throw new IOException("Not a customer snapshot: " + path);
+            }
+            int version = reader.window.getInt();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            }
+            long count = reader.window.getLong();
+            List<Customer> customers = new ArrayList<>((int) Math.min(count, Integer.MAX_VALUE - 8));
+            AsciiChars nameView = new AsciiChars();
+            AsciiChars phoneView = new AsciiChars();
+            AsciiChars emailView = new AsciiChars();
+            for (long i = 0; i < count; i++) {
+                reader.ensure(16);
+                int id = reader.window.getInt();
+                long epochSecond = reader.window.getLong();
+                int nano = reader.window.getInt();
+                CharSequence fullName = reader.getChars(nameView);
+                CharSequence phone = reader.getChars(phoneView);
+                CharSequence email = reader.getChars(emailView);
+                customers.add(new Customer(id, fullName, phone, email, epochSecond, nano));
+            }
+            long recordsEnd = size - 4;
+            if (version >= 2) {
+                recordsEnd = indexOffset(channel, size);
+            }
+            if (reader.position() != recordsEnd) {
+                throw new IOException("Snapshot record count does not match its contents: " + path);
+            }
+            return customers;
+        }
+    }
+
+    // Returns where the index of a version 2 snapshot starts, which is also where its records end.
+    static long indexOffset(FileChannel channel, long size) throws IOException {
+        ByteBuffer footer = ByteBuffer.allocate(8);
+        while (footer.hasRemaining()) {
+            if (channel.read(footer, size - 12 + footer.position()) < 0) {
+                throw new IOException("Snapshot is truncated");
+            }
+        }
+        long offset = footer.flip().getLong();
+        if (offset < HEADER_BYTES || offset > size - 4 - FOOTER_BYTES) {
+            throw new IOException("Snapshot index offset is out of range");
+        }
+        return offset;
+    }
+
+    private static void verifyChecksum(FileChannel channel, long start, long end) throws IOException {
+        CRC32C crc = new CRC32C();
+        for (long offset = start; offset < end; offset += READ_WINDOW_BYTES) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(READ_WINDOW_BYTES, end - offset)));
+        }
+        ByteBuffer stored = ByteBuffer.allocate(4);
+        while (stored.hasRemaining()) {
+            if (channel.read(stored, end + stored.position()) < 0) {
+                throw new IOException("Snapshot is truncated");
+            }
+        }
+        stored.flip();
+        if (stored.getInt() != (int) crc.getValue()) {
+            throw new IOException("Snapshot checksum mismatch");
+        }
+    }
+
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CRC32C crc = new CRC32C();
+        private long flushed = HEADER_BYTES;
+
+        private Writer(FileChannel channel, int bufferBytes) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+        }
+
+        private void putString(String value) throws IOException {
+            if (value == null) {
+                ensure(4);
+                buffer.putInt(-1);
+                return;
+            }
+            int length = value.length();
+            ensure(4 + length);
+            int lengthAt = buffer.position();
+            buffer.putInt(length);
+            for (int i = 0; i < length; i++) {
+                char ch = value.charAt(i);
+                if (ch >= 0x80) {
+                    // Non-ASCII text takes the slower path through the UTF-8 encoder.
+                    buffer.position(lengthAt);
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    ensure(4 + bytes.length);
+                    buffer.putInt(bytes.length).put(bytes);
+                    return;
+                }
+                buffer.put((byte) ch);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes) {
+                    throw new IOException("Field too large for snapshot buffer: " + bytes + " bytes");
+                }
+            }
+        }
+
+        // The file offset the next byte put into the buffer will land at.
+        private long offset() {
+            return flushed + buffer.position();
+        }
+
+        private void flush() throws IOException {
+            flushed += buffer.position();
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // Maps the file in windows so snapshots larger than a single mapping can still be read.
+    private static final class Reader {
+        private final FileChannel channel;
+        private final long end;
+        private long windowStart;
+        private MappedByteBuffer window;
+        private byte[] scratch = new byte[128];
+
+        private Reader(FileChannel channel, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            remap(0);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (end - position < bytes) {
+                throw new IOException("Snapshot is truncated");
+            }
+            remap(position);
+        }
+
+        private long position() {
+            return windowStart + window.position();
+        }
+
+        private void remap(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(READ_WINDOW_BYTES, end - position));
+        }
+
+        // An ASCII string comes back in view, which only holds it until the view is reused.
+        private CharSequence getChars(AsciiChars view) throws IOException {
+            ensure(4);
+            int length = window.getInt();
+            if (length < 0) {
+                return null;
+            }
+            ensure(length);
+            int start = window.position();
+            if (view.set(window, start, length)) {
+                window.position(start + length);
+                return view;
+            }
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            window.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
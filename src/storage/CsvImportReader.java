@@ -0,0 +1,144 @@
+package storage;
+
+import model.CustomerDraft;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// Reads customers to import from a CSV stream in batches, without loading the whole stream.
+// Records are either fullName,phone,email or the five-column layout the snapshot uses, whose id is
+// ignored. A record that fits neither comes back as an empty draft so validation counts it.
+// Fields are not validated here. I/O errors surface as UncheckedIOException from hasNext().
+public class CsvImportReader implements Iterator<List<CustomerDraft>>, Closeable {
+    private static final int BLOCK_BYTES = 1 << 20;
+
+    private final InputStream in;
+    private final int batchSize;
+    private byte[] block = new byte[BLOCK_BYTES];
+    private int filled;
+    private int consumed;
+    private boolean endOfStream;
+    private boolean headerPossible = true;
+    private List<CustomerDraft> pending;
+
+    public CsvImportReader(InputStream in, int batchSize) {
+        this.in = in;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            try {
+                pending = readBatch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public List<CustomerDraft> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<CustomerDraft> batch = pending;
+        pending = null;
+        return batch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private List<CustomerDraft> readBatch() throws IOException {
+        List<CustomerDraft> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+            int end = completeRecordsEnd();
+            if (end <= consumed) {
+                if (endOfStream) {
+                    break;
+                }
+                refill();
+                continue;
+            }
+            CsvTokenizer tokenizer = new CsvTokenizer(ByteBuffer.wrap(block, 0, end));
+            int pos = consumed;
+            while (pos < end && batch.size() < batchSize) {
+                pos = tokenizer.next(pos);
+                if (tokenizer.fieldCount() == 0) {
+                    continue;
+                }
+                if (headerPossible) {
+                    headerPossible = false;
+                    if (tokenizer.startsWithIgnoreCase("id,") || tokenizer.startsWithIgnoreCase("fullname,")) {
+                        continue;
+                    }
+                }
+                batch.add(toDraft(tokenizer));
+            }
+            consumed = pos;
+        }
+        return batch;
+    }
+
+    // Returns the end of the last complete record in the block: just past the last newline that is
+    // outside quotes, or everything once the stream is exhausted.
+    private int completeRecordsEnd() {
+        if (endOfStream) {
+            return filled;
+        }
+        int end = consumed;
+        boolean inQuotes = false;
+        for (int i = consumed; i < filled; i++) {
+            byte b = block[i];
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                end = i + 1;
+            }
+        }
+        return end;
+    }
+
+    // Moves the unparsed tail to the front of the block, growing it when a single record fills it.
+    private void refill() throws IOException {
+        if (consumed > 0) {
+            System.arraycopy(block, consumed, block, 0, filled - consumed);
+            filled -= consumed;
+            consumed = 0;
+        }
+        if (filled == block.length) {
+            byte[] larger = new byte[block.length * 2];
+            System.arraycopy(block, 0, larger, 0, filled);
+            block = larger;
+        }
+        int read = in.read(block, filled, block.length - filled);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            filled += read;
+        }
+    }
+
+    private static CustomerDraft toDraft(CsvTokenizer record) {
+        if (record.fieldCount() == 3) {
+            return new CustomerDraft(record.text(0), record.text(1), record.text(2), null);
+        }
+        if (record.fieldCount() >= 5) {
+            LocalDateTime createdAt = record.timestamp(4);
+            return new CustomerDraft(record.text(1), record.text(2), record.text(3), createdAt);
+        }
+        return new CustomerDraft(null, null, null, null);
+    }
+}
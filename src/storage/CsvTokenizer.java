@@ -0,0 +1,284 @@
+package storage;
+
+import model.Customer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+// Splits CSV records straight out of a byte buffer. A record is reduced to field offsets; strings
+// are only built for the fields a caller asks for, so a parsed row leaves no garbage behind.
+// Quoting matches Customer.escapeCsv: quoted fields may hold commas and newlines, and "" is a quote.
+class CsvTokenizer {
+    private final ByteBuffer buffer;
+    private int[] fieldStarts = new int[8];
+    private int[] fieldEnds = new int[8];
+    private boolean[] fieldQuoted = new boolean[8];
+    private int fieldCount;
+    private byte[] scratch = new byte[128];
+    private AsciiChars[] views = new AsciiChars[0];
+    private long timestampSecond;
+    private int timestampNano;
+
+    CsvTokenizer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // Tokenizes the record starting at pos and returns the position of the record after it.
+    // Surrounding whitespace is trimmed the same way String.trim() trims a whole line.
+    int next(int pos) {
+        int limit = buffer.limit();
+        int i = pos;
+        while (i < limit && buffer.get(i) != '\n' && (buffer.get(i) & 0xFF) <= ' ') {
+            i++;
+        }
+        fieldCount = 0;
+        int fieldStart = i;
+        boolean quoted = false;
+        boolean inQuotes = false;
+        for (; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+                quoted = true;
+            } else if (!inQuotes) {
+                if (b == ',') {
+                    addField(fieldStart, i, quoted);
+                    fieldStart = i + 1;
+                    quoted = false;
+                } else if (b == '\n') {
+                    break;
+                }
+            }
+        }
+        int end = i;
+        while (end > fieldStart && (buffer.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        addField(fieldStart, end, quoted);
+        if (fieldCount == 1 && fieldStart == end) {
+            fieldCount = 0;
+        }
+        return i < limit ? i + 1 : limit;
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    boolean startsWithIgnoreCase(String prefix) {
+        if (fieldCount == 0) {
+            return false;
+        }
+        int start = fieldStarts[0];
+        if (buffer.limit() - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char) (buffer.get(start + i) & 0xFF)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String text(int field) {
+        int start = fieldStarts[field];
+        int length = fieldEnds[field] - start;
+        ensureScratch(length);
+        if (!fieldQuoted[field]) {
+            buffer.get(start, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        int out = 0;
+        boolean inQuotes = false;
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                if (inQuotes && i + 1 < start + length && buffer.get(i + 1) == '"') {
+                    scratch[out++] = '"';
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else {
+                scratch[out++] = b;
+            }
+        }
+        return new String(scratch, 0, out, StandardCharsets.UTF_8);
+    }
+
+    // The field as text(field) would give it, but an unquoted ASCII field comes back as a view of
+    // its bytes rather than a new String. The view is reused, so it only lasts until the next record.
+    CharSequence chars(int field) {
+        if (fieldQuoted[field]) {
+            return text(field);
+        }
+        if (field >= views.length) {
+            views = Arrays.copyOf(views, field + 1);
+        }
+        if (views[field] == null) {
+            views[field] = new AsciiChars();
+        }
+        int start = fieldStarts[field];
+        return views[field].set(buffer, start, fieldEnds[field] - start) ? views[field] : text(field);
+    }
+
+    // Parses an int the way Integer.parseInt(text(field).trim()) would, returning Long.MIN_VALUE on failure.
+    long parseInt(int field) {
+        int start = fieldStarts[field];
+        int end = fieldEnds[field];
+        while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        if (fieldQuoted[field] || start == end) {
+            return fallbackInt(field);
+        }
+        boolean negative = false;
+        byte first = buffer.get(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+        }
+        if (start == end || end - start > 10) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    // Returns null when the value is not a valid ISO local date-time.
+    LocalDateTime timestamp(int field) {
+        return parseTimestamp(field) ? LocalDateTime.ofEpochSecond(timestampSecond, timestampNano, ZoneOffset.UTC) : null;
+    }
+
+    // Decodes yyyy-MM-ddTHH:mm[:ss[.fraction]] by hand and hands anything else to Customer.CSV_FORMAT.
+    // Returns false when the value is not a valid ISO local date-time; otherwise timestampSecond()
+    // and timestampNano() give it the way Customer keeps it, without building a LocalDateTime.
+    boolean parseTimestamp(int field) {
+        int s = fieldStarts[field];
+        int length = fieldEnds[field] - s;
+        if (!fieldQuoted[field] && length >= 16 && length <= 29
+                && buffer.get(s + 4) == '-' && buffer.get(s + 7) == '-' && buffer.get(s + 10) == 'T'
+                && buffer.get(s + 13) == ':') {
+            int year = digits(s, 4);
+            int month = digits(s + 5, 2);
+            int day = digits(s + 8, 2);
+            int hour = digits(s + 11, 2);
+            int minute = digits(s + 14, 2);
+            int second = 0;
+            int nano = 0;
+            boolean valid = (year | month | day | hour | minute) >= 0;
+            if (valid && length > 16) {
+                valid = length >= 19 && buffer.get(s + 16) == ':';
+                second = valid ? digits(s + 17, 2) : -1;
+                valid = second >= 0;
+                if (valid && length > 19) {
+                    int fractionDigits = length - 20;
+                    valid = buffer.get(s + 19) == '.' && fractionDigits >= 1;
+                    nano = valid ? digits(s + 20, fractionDigits) : -1;
+                    valid = nano >= 0;
+                    for (int i = fractionDigits; valid && i < 9; i++) {
+                        nano *= 10;
+                    }
+                }
+            }
+            if (valid) {
+                if (hour > 23 || minute > 59 || second > 59) {
+                    return false;
+                }
+                try {
+                    timestampSecond = LocalDate.of(year, month, day).toEpochDay() * 86_400
+                            + hour * 3_600 + minute * 60 + second;
+                } catch (DateTimeException e) {
+                    return false;
+                }
+                timestampNano = nano;
+                return true;
+            }
+        }
+        try {
+            LocalDateTime parsed = LocalDateTime.parse(text(field), Customer.CSV_FORMAT);
+            timestampSecond = parsed.toEpochSecond(ZoneOffset.UTC);
+            timestampNano = parsed.getNano();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    long timestampSecond() {
+        return timestampSecond;
+    }
+
+    int timestampNano() {
+        return timestampNano;
+    }
+
+    // Returns the position just past the next newline that is outside quotes, or the buffer limit.
+    static int skipRecord(ByteBuffer buffer, int from, boolean inQuotes) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private long fallbackInt(int field) {
+        try {
+            return Integer.parseInt(text(field).trim());
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private void ensureScratch(int length) {
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package storage;
+
+import model.Customer;
+import util.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+// Public methods are synchronized so a background PersistenceScheduler can sync and compact while
+// other threads keep logging.
+public class CustomerJournal {
+    private static final byte OP_ADD = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+    private static final int MAX_RECORD_BYTES = 1 << 24;
+    private static final int RETAINED_BUFFER_BYTES = 1 << 20;
+
+    private final FileStorage snapshot;
+    private final Path journalPath;
+    private final Path sealedPath;
+    private final int syncEvery;
+    private final int compactAfter;
+    private final ExecutorService compactor;
+
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private int recordStart;
+    private int unsyncedRecords;
+    private int recordsSinceCompaction;
+    private Future<?> pendingCompaction;
+    // Snapshot segments holding a customer changed since the last checkpoint, whether the change
+    // was logged in this session or replayed from the journal on load.
+    private final Set<Integer> changedSegments = new TreeSet<>();
+    // Set by seal() until the checkpoint after it finishes, with the segments its records changed.
+    // Compaction waits meanwhile, since the checkpoint owns the sealed records and the snapshot.
+    private boolean sealedForCheckpoint;
+    private Set<Integer> checkpointSegments = new TreeSet<>();
+
+    // syncEvery is the number of appended records between fsyncs, or 0 to leave syncing to sync();
+    // compactAfter is the number of records the journal may hold before it is folded into the
+    // snapshot in the background.
+    public CustomerJournal(String journalPath, FileStorage snapshot, int syncEvery, int compactAfter) {
+        this.snapshot = snapshot;
+        this.journalPath = Paths.get(journalPath);
+        this.sealedPath = Paths.get(journalPath + ".sealed");
+        this.syncEvery = syncEvery <= 0 ? Integer.MAX_VALUE : syncEvery;
+        this.compactAfter = Math.max(1, compactAfter);
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized List<Customer> load() {
+        awaitCompaction();
+        // Read first, so a snapshot that fails to load leaves the journal open.
+        List<Customer> customers = snapshot.loadFromFile();
+        closeChannel();
+        changedSegments.clear();
+        try {
+            Map<Integer, Customer> byId = toMap(customers);
+            if (Files.exists(sealedPath)) {
+                replay(sealedPath, byId, this::markChanged);
+            }
+            long validLength = replay(journalPath, byId, this::markChanged);
+            openChannel(validLength);
+            customers = new ArrayList<>(byId.values());
+            if (recordsSinceCompaction > 0) {
+                System.out.println("Replayed " + recordsSinceCompaction + " journal records from " + journalPath);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to replay journal: " + e.getMessage());
+        }
+        return customers;
+    }
+
+    // Opens the snapshot without loading it and lays the journal over it, for serving reads while
+    // load() runs in the background. Returns null when the snapshot cannot be opened lazily: it is
+    // segmented, missing or too large to map. Nothing is replayed into the journal's own state.
+    public synchronized LazySnapshot openPreview() {
+        awaitCompaction();
+        try {
+            LazySnapshot preview = snapshot.openLazy();
+            if (preview == null) {
+                return null;
+            }
+            Map<Integer, Customer> byId = new LinkedHashMap<>();
+            Set<Integer> touched = new HashSet<>();
+            if (Files.exists(sealedPath)) {
+                replay(sealedPath, byId, touched::add);
+            }
+            replay(journalPath, byId, touched::add);
+            preview.overlay(byId, touched);
+            return preview;
+        } catch (IOException e) {
+            System.out.println("Failed to open snapshot: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized void logAdd(Customer customer) {
+        append(OP_ADD, customer);
+        write(1);
+    }
+
+    // Appends the whole batch with a single write and at most one fsync.
+    public synchronized void logAdds(List<Customer> customers) {
+        for (Customer customer : customers) {
+            append(OP_ADD, customer);
+        }
+        write(customers.size());
+    }
+
+    public synchronized void logUpdate(Customer customer) {
+        append(OP_UPDATE, customer);
+        write(1);
+    }
+
+    public synchronized void logDelete(int id) {
+        changedSegments.add(SegmentedSnapshot.segmentOf(id));
+        beginRecord();
+        ensureCapacity(5);
+        buffer.put(OP_DELETE).putInt(id);
+        endRecord();
+        write(1);
+    }
+
+    public void checkpoint(Iterable<Customer> customers) {
+        checkpoint(customers, null);
+    }
+
+    // Starts a checkpoint of customers that may keep changing: the records logged so far are sealed
+    // and later ones go to a fresh journal, which the checkpoint leaves in place. Open the view for
+    // checkpoint after this returns, so that it holds every sealed change. A change logged after the
+    // seal may be in the view too; replaying it over the snapshot sets the same customer again.
+    public synchronized void seal() {
+        awaitCompaction();
+        if (sealedForCheckpoint) {
+            return;
+        }
+        try {
+            if (Files.exists(sealedPath)) {
+                // A compaction did not finish; fold its records in before sealing new ones.
+                foldSealedIntoSnapshot();
+                if (Files.exists(sealedPath)) {
+                    return;
+                }
+            }
+            if (channel != null) {
+                sealJournal();
+            }
+            checkpointSegments = new TreeSet<>(changedSegments);
+            changedSegments.clear();
+            sealedForCheckpoint = true;
+        } catch (IOException e) {
+            System.out.println("Failed to seal journal: " + e.getMessage());
+        }
+    }
+
+    // Writes the customers as the new snapshot and drops the records sealed for it, sealing first
+    // if seal() was not called. With a segmented snapshot and a lookup by id, only the segments
+    // changed by the sealed records are rewritten from the lookup; otherwise the whole snapshot is
+    // replaced. The customers are read without the journal's lock held, so a caller may log changes
+    // while holding a lock the reads need. Checkpoints run one at a time.
+    public void checkpoint(Iterable<Customer> customers, IntFunction<Customer> lookup) {
+        Set<Integer> segments;
+        synchronized (this) {
+            seal();
+            if (!sealedForCheckpoint) {
+                System.out.println("Failed to save customers: the journal could not be sealed");
+                return;
+            }
+            segments = checkpointSegments;
+        }
+        long started = Metrics.start(Metrics.Op.CHECKPOINT);
+        boolean saved = false;
+        try {
+            String written;
+            if (lookup != null && snapshot.canWriteIncrementally()) {
+                written = snapshot.writeSegments(segments, lookup) + " customers in " + segments.size() + " changed segments";
+            } else {
+                written = snapshot.writeSnapshot(customers) + " customers";
+            }
+            Files.deleteIfExists(sealedPath);
+            saved = true;
+            System.out.println("Saved " + written + " to " + snapshot.getFilePath());
+        } catch (IOException e) {
+            System.out.println("Failed to save customers: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                if (!saved) {
+                    // The sealed records stay on disk and are folded in by the next compaction.
+                    changedSegments.addAll(segments);
+                }
+                checkpointSegments = new TreeSet<>();
+                sealedForCheckpoint = false;
+            }
+            Metrics.stop(Metrics.Op.CHECKPOINT, started);
+        }
+    }
+
+    // Forces appended records to disk. The fsync runs outside the lock so loggers are not held up
+    // by it; a record appended meanwhile is counted towards the next sync.
+    public void sync() {
+        FileChannel current;
+        synchronized (this) {
+            if (channel == null || unsyncedRecords == 0) {
+                return;
+            }
+            current = channel;
+            unsyncedRecords = 0;
+        }
+        long started = Metrics.start(Metrics.Op.JOURNAL_SYNC);
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // The segment was sealed or the journal closed, and both force the channel first.
+        } catch (IOException e) {
+            System.out.println("Failed to sync journal: " + e.getMessage());
+        } finally {
+            Metrics.stop(Metrics.Op.JOURNAL_SYNC, started);
+        }
+    }
+
+    // Seals the records logged so far and folds them into the snapshot on the compactor thread.
+    public synchronized void compact() {
+        if (channel == null || (recordsSinceCompaction == 0 && !Files.exists(sealedPath))) {
+            return;
+        }
+        try {
+            startCompaction();
+        } catch (IOException e) {
+            System.out.println("Journal compaction failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        awaitCompaction();
+        compactor.shutdown();
+        closeChannel();
+    }
+
+    private void append(byte op, Customer customer) {
+        beginRecord();
+        ensureCapacity(64);
+        changedSegments.add(SegmentedSnapshot.segmentOf(customer.getId()));
+        buffer.put(op).putInt(customer.getId());
+        putString(customer.getFullName());
+        putString(customer.getPhone());
+        putString(customer.getEmail());
+        ensureCapacity(12);
+        buffer.putLong(customer.getCreatedEpochSecond());
+        buffer.putInt(customer.getCreatedNano());
+        endRecord();
+    }
+
+    // Writes the records framed since the last write and counts them towards syncEvery and compactAfter.
+    private void write(int records) {
+        buffer.flip();
+        long started = Metrics.start(Metrics.Op.JOURNAL_WRITE);
+        try {
+            if (channel == null) {
+                System.out.println("Journal is not open; change was not persisted.");
+                return;
+            }
+            Metrics.addVolume(Metrics.Op.JOURNAL_WRITE, records, buffer.remaining());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            unsyncedRecords += records;
+            if (unsyncedRecords >= syncEvery) {
+                channel.force(false);
+                unsyncedRecords = 0;
+            }
+            recordsSinceCompaction += records;
+            if (recordsSinceCompaction >= compactAfter) {
+                startCompaction();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to write journal: " + e.getMessage());
+        } finally {
+            Metrics.stop(Metrics.Op.JOURNAL_WRITE, started);
+            // A large batch may have grown the buffer; don't hold on to it.
+            buffer = buffer.capacity() > RETAINED_BUFFER_BYTES ? ByteBuffer.allocate(256) : buffer.clear();
+        }
+    }
+
+    private void startCompaction() throws IOException {
+        if (sealedForCheckpoint || (pendingCompaction != null && !pendingCompaction.isDone())) {
+            return;
+        }
+        if (Files.exists(sealedPath)) {
+            // A previous compaction did not finish; fold the leftover segment before sealing a new one.
+            pendingCompaction = compactor.submit(this::foldSealedIntoSnapshot);
+            return;
+        }
+        sealJournal();
+        pendingCompaction = compactor.submit(this::foldSealedIntoSnapshot);
+    }
+
+    // Moves the records logged so far to the sealed file and starts a fresh journal.
+    private void sealJournal() throws IOException {
+        channel.force(true);
+        channel.close();
+        unsyncedRecords = 0;
+        Files.move(journalPath, sealedPath, StandardCopyOption.ATOMIC_MOVE);
+        openChannel(0);
+        recordsSinceCompaction = 0;
+    }
+
+    // Runs on the compactor thread and only touches files, never the live service state.
+    private void foldSealedIntoSnapshot() {
+        try {
+            if (snapshot.canWriteIncrementally()) {
+                foldSealedIntoSegments();
+            } else {
+                Map<Integer, Customer> byId = toMap(snapshot.readCustomers());
+                replay(sealedPath, byId, null);
+                snapshot.writeSnapshot(new ArrayList<>(byId.values()));
+            }
+            Files.deleteIfExists(sealedPath);
+        } catch (IOException e) {
+            System.out.println("Journal compaction failed: " + e.getMessage());
+        }
+    }
+
+    // Reads only the segments the sealed records touch, applies the records and writes them back.
+    private void foldSealedIntoSegments() throws IOException {
+        Set<Integer> touched = new TreeSet<>();
+        replay(sealedPath, new HashMap<>(), id -> touched.add(SegmentedSnapshot.segmentOf(id)));
+        Map<Integer, Customer> byId = toMap(snapshot.readSegments(touched));
+        replay(sealedPath, byId, null);
+        Map<Integer, List<Customer>> bySegment = new HashMap<>();
+        for (Customer customer : byId.values()) {
+            bySegment.computeIfAbsent(SegmentedSnapshot.segmentOf(customer.getId()), segment -> new ArrayList<>()).add(customer);
+        }
+        for (Integer segment : touched) {
+            snapshot.writeSegment(segment, bySegment.getOrDefault(segment, new ArrayList<>()));
+        }
+    }
+
+    private void markChanged(int id) {
+        changedSegments.add(SegmentedSnapshot.segmentOf(id));
+    }
+
+    private void awaitCompaction() {
+        if (pendingCompaction == null) {
+            return;
+        }
+        try {
+            pendingCompaction.get();
+        } catch (Exception e) {
+            System.out.println("Journal compaction failed: " + e.getMessage());
+        }
+        pendingCompaction = null;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close journal: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    private void openChannel(long validLength) throws IOException {
+        if (journalPath.getParent() != null) {
+            Files.createDirectories(journalPath.getParent());
+        }
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a torn record left behind by a crash so new records stay readable.
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+    }
+
+    // Applies the valid records in the file to byId, passing every id they touch to touched when it
+    // is given, and returns the length of the valid prefix.
+    private long replay(Path path, Map<Integer, Customer> byId, IntConsumer touched) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long validLength = 0;
+        int applied = 0;
+        try (InputStream raw = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            while (true) {
+                int payloadLength;
+                byte[] payload;
+                int storedCrc;
+                try {
+                    payloadLength = in.readInt();
+                    if (payloadLength <= 0 || payloadLength > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[payloadLength];
+                    in.readFully(payload);
+                    storedCrc = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != storedCrc) {
+                    break;
+                }
+                int id = apply(ByteBuffer.wrap(payload), byId);
+                if (touched != null) {
+                    touched.accept(id);
+                }
+                validLength += payloadLength + 8;
+                applied++;
+            }
+        }
+        if (path.equals(journalPath)) {
+            recordsSinceCompaction = applied;
+        }
+        return validLength;
+    }
+
+    // Returns the id the record applies to.
+    private static int apply(ByteBuffer record, Map<Integer, Customer> byId) {
+        byte op = record.get();
+        int id = record.getInt();
+        if (op == OP_DELETE) {
+            byId.remove(id);
+            return id;
+        }
+        String fullName = getString(record);
+        String phone = getString(record);
+        String email = getString(record);
+        long epochSecond = record.getLong();
+        int nano = record.getInt();
+        byId.put(id, new Customer(id, fullName, phone, email, epochSecond, nano));
+        return id;
+    }
+
+    private static Map<Integer, Customer> toMap(List<Customer> customers) {
+        Map<Integer, Customer> byId = new LinkedHashMap<>();
+        for (Customer customer : customers) {
+            byId.putIfAbsent(customer.getId(), customer);
+        }
+        return byId;
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            ensureCapacity(4);
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return value;
+    }
+
+    // Records are framed as [payload length][payload][CRC32 of payload]; endRecord() fills in the
+    // length and checksum once the payload is in place. Several records may be framed before a write.
+    private void beginRecord() {
+        ensureCapacity(4);
+        recordStart = buffer.position();
+        buffer.position(recordStart + 4);
+    }
+
+    private void endRecord() {
+        int payloadLength = buffer.position() - recordStart - 4;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), recordStart + 4, payloadLength);
+        ensureCapacity(4);
+        buffer.putInt((int) crc.getValue());
+        buffer.putInt(recordStart, payloadLength);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer.remaining() >= extra) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
@@ -1,113 +1,461 @@
 package storage;
 
 import model.Customer;
+import util.Metrics;
+import util.Shards;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+// The format follows the file name: .bin is a binary snapshot, .seg a directory of segment files
+// that can be saved incrementally, anything else CSV. Saves never overwrite the file in place.
+// With several shards the customers are split by id over that many files named after this one,
+// e.g. customers-0-of-4.csv, in the same format; they are read and written in parallel on the
+// fork-join pool. The shard count is part of the names. When the only snapshot on disk was written
+// with another count, or unsharded, it is read instead and migrated: the first successful save
+// writes the configured files and deletes the old ones. Finding two snapshots, or a set of shard
+// files with one missing, fails the load rather than pick one that may be stale or partial.
 public class FileStorage {
     private final String filePath;
+    private final boolean binary;
+    private final boolean segmented;
+    // One storage per shard file, or null when everything is in one file.
+    private final FileStorage[] shards;
+    // The shard count of a snapshot read for migration, deleted by the next save; 0 when none.
+    private volatile int migratingFrom;
 
     public FileStorage(String filePath) {
+        this(filePath, 1);
+    }
+
+    public FileStorage(String filePath, int shardCount) {
         this.filePath = filePath;
+        this.binary = filePath.endsWith(".bin");
+        this.segmented = filePath.endsWith(".seg");
+        if (shardCount > 1) {
+            shards = new FileStorage[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = new FileStorage(shardPath(filePath, Integer.toString(i), shardCount));
+            }
+        } else {
+            shards = null;
+        }
     }
 
-    public void saveToFile(List<Customer> customers) {
-        Path path = Paths.get(filePath);
+    // With shards, a pattern naming all of the shard files.
+    public String getFilePath() {
+        return shards == null ? filePath : shardPath(filePath, "*", shards.length);
+    }
+
+    public void saveToFile(Iterable<Customer> customers) {
         try {
-            if (path.getParent() != null) {
-                Files.createDirectories(path.getParent());
-            }
-            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
-                writer.write("id,fullName,phone,email,createdAt");
-                writer.newLine();
-                for (Customer customer : customers) {
-                    writer.write(customer.toCsvLine());
-                    writer.newLine();
-                }
-            }
-            System.out.println("Saved " + customers.size() + " customers to " + filePath);
+            int saved = writeSnapshot(customers);
+            System.out.println("Saved " + saved + " customers to " + getFilePath());
         } catch (IOException e) {
             System.out.println("Failed to save customers: " + e.getMessage());
         }
     }
 
+    // Throws IllegalStateException when the snapshot on disk is ambiguous; see the class comment.
     public List<Customer> loadFromFile() {
         List<Customer> customers = new ArrayList<>();
+        try {
+            long started = System.nanoTime();
+            int onDisk = shardCountOnDisk();
+            customers = read(onDisk);
+            if (onDisk != 0) {
+                double seconds = Math.max(System.nanoTime() - started, 1) / 1_000_000_000.0;
+                System.out.println("Loaded " + customers.size() + " customers from " + pathFor(onDisk)
+                        + " (" + Math.round(customers.size() / seconds) + " rows/sec)");
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to load customers: " + e.getMessage());
+        }
+        return customers;
+    }
+
+    public void exportCsv(Iterable<Customer> customers, String csvPath) {
+        try {
+            int exported = writeCsv(Paths.get(csvPath), customers);
+            System.out.println("Exported " + exported + " customers to " + csvPath);
+        } catch (IOException e) {
+            System.out.println("Failed to export customers: " + e.getMessage());
+        }
+    }
+
+    public List<Customer> importCsv(String csvPath) {
+        List<Customer> customers = new ArrayList<>();
+        try {
+            if (Files.exists(Paths.get(csvPath))) {
+                customers = new ParallelCsvLoader().load(Paths.get(csvPath));
+            }
+            System.out.println("Imported " + customers.size() + " customers from " + csvPath);
+        } catch (IOException e) {
+            System.out.println("Failed to import customers: " + e.getMessage());
+        }
+        return customers;
+    }
+
+    // Replaces the snapshot with the given customers. A single file is written next to the target
+    // and renamed over it; segments and shard files are each replaced the same way. Returns the
+    // number written.
+    int writeSnapshot(Iterable<Customer> customers) throws IOException {
+        long started = Metrics.start(Metrics.Op.SNAPSHOT_SAVE);
+        int written;
+        if (shards == null) {
+            written = writeFile(customers);
+        } else {
+            List<List<Customer>> parts = partition(customers);
+            written = sum(onEachShard((index, shard) -> shard.writeFile(parts.get(index))));
+        }
+        removeMigratedSnapshot();
+        Metrics.addVolume(Metrics.Op.SNAPSHOT_SAVE, written, bytesOnDisk());
+        Metrics.stop(Metrics.Op.SNAPSHOT_SAVE, started);
+        return written;
+    }
+
+    // Only a segmented snapshot that already exists can be brought up to date one segment at a time.
+    boolean canWriteIncrementally() {
+        if (shards == null) {
+            return segmented && Files.isDirectory(Paths.get(filePath));
+        }
+        for (FileStorage shard : shards) {
+            if (!shard.canWriteIncrementally()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // With shards, each shard file rewrites the segments from the customers in lookup that belong to it.
+    int writeSegments(Collection<Integer> segments, IntFunction<Customer> lookup) throws IOException {
+        long started = Metrics.start(Metrics.Op.SNAPSHOT_SAVE);
+        int written;
+        if (shards == null) {
+            written = SegmentedSnapshot.writeSegments(Paths.get(filePath), segments, lookup);
+        } else {
+            written = sum(onEachShard((index, shard) -> SegmentedSnapshot.writeSegments(Paths.get(shard.filePath), segments,
+                        id -> Shards.of(id, shards.length) == index ? lookup.apply(id) : null)));
+        }
+        Metrics.addVolume(Metrics.Op.SNAPSHOT_SAVE, written, 0);
+        Metrics.stop(Metrics.Op.SNAPSHOT_SAVE, started);
+        return written;
+    }
+
+    List<Customer> readSegments(Collection<Integer> segments) throws IOException {
+        if (shards == null) {
+            return SegmentedSnapshot.readSegments(Paths.get(filePath), segments);
+        }
+        return concat(onEachShard((index, shard) -> shard.readSegments(segments)));
+    }
+
+    void writeSegment(int segment, List<Customer> customers) throws IOException {
+        if (shards == null) {
+            SegmentedSnapshot.writeSegment(Paths.get(filePath), segment, customers);
+            return;
+        }
+        List<List<Customer>> parts = partition(customers);
+        onEachShard((index, shard) -> {
+            shard.writeSegment(segment, parts.get(index));
+            return 0;
+        });
+    }
+
+    // Maps the snapshot for LazySnapshot; null when there is no single file to map, including when
+    // the snapshot on disk still has to be migrated.
+    LazySnapshot openLazy() throws IOException {
+        Path path = Paths.get(filePath);
+        if (shards != null || segmented || shardCountOnDisk() != 1 || !Files.isRegularFile(path)) {
+            return null;
+        }
+        return LazySnapshot.open(path, binary);
+    }
+
+    private int writeFile(Iterable<Customer> customers) throws IOException {
+        Path target = Paths.get(filePath);
+        if (segmented) {
+            return SegmentedSnapshot.writeAll(target, customers);
+        }
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path temp = Paths.get(filePath + ".tmp");
+        int written = binary ? BinarySnapshot.write(temp, customers) : writeCsv(temp, customers);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private List<Customer> readFile() throws IOException {
         Path path = Paths.get(filePath);
         if (!Files.exists(path)) {
-            return customers;
+            return new ArrayList<>();
         }
+        if (segmented) {
+            return SegmentedSnapshot.read(path);
+        }
+        return binary ? BinarySnapshot.read(path) : new ParallelCsvLoader().load(path);
+    }
 
-        try (BufferedReader reader = Files.newBufferedReader(path)) {
-            String line;
-            boolean firstLine = true;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-                if (firstLine && line.toLowerCase().startsWith("id,")) {
-                    firstLine = false;
-                    continue;
-                }
-                firstLine = false;
-                List<String> fields = parseCsvLine(line);
-                if (fields.size() < 5) {
-                    continue;
-                }
-                int id;
-                try {
-                    id = Integer.parseInt(fields.get(0).trim());
-                } catch (NumberFormatException e) {
-                    continue;
+    // The shard count the snapshot on disk was written with: 1 for the unsharded file, 0 when there
+    // is no snapshot. Throws IllegalStateException when there are snapshots with several counts, or
+    // a set of shard files with one missing.
+    private int shardCountOnDisk() throws IOException {
+        Path path = Paths.get(filePath).toAbsolutePath();
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot < 0 ? name : name.substring(0, dot);
+        String extension = dot < 0 ? "" : name.substring(dot);
+        Pattern shardName = Pattern.compile(Pattern.quote(base) + "-(\\d+)-of-(\\d+)" + Pattern.quote(extension));
+        Map<Integer, Set<Integer>> found = new TreeMap<>();
+        if (Files.exists(path)) {
+            found.put(1, Collections.singleton(0));
+        }
+        if (Files.isDirectory(path.getParent())) {
+            try (Stream<Path> files = Files.list(path.getParent())) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Matcher matcher = shardName.matcher(file.getFileName().toString());
+                    if (!matcher.matches() || matcher.group(1).length() > 9 || matcher.group(2).length() > 9) {
+                        continue;
+                    }
+                    int count = Integer.parseInt(matcher.group(2));
+                    if (count > 1) {
+                        found.computeIfAbsent(count, key -> new TreeSet<>()).add(Integer.parseInt(matcher.group(1)));
+                    }
                 }
-                String fullName = fields.get(1);
-                String phone = fields.get(2);
-                String email = fields.get(3);
-                LocalDateTime createdAt;
-                try {
-                    createdAt = LocalDateTime.parse(fields.get(4), Customer.CSV_FORMAT);
-                } catch (Exception e) {
-                    createdAt = LocalDateTime.now();
+            }
+        }
+        if (found.size() > 1) {
+            List<String> snapshots = new ArrayList<>();
+            for (int count : found.keySet()) {
+                snapshots.add(pathFor(count));
+            }
+            throw new IllegalStateException("Found more than one snapshot: " + String.join(", ", snapshots)
+                    + "; remove the stale ones");
+        }
+        for (Map.Entry<Integer, Set<Integer>> entry : found.entrySet()) {
+            int count = entry.getKey();
+            for (int shard = 0; shard < count; shard++) {
+                if (!entry.getValue().contains(shard)) {
+                    throw new IllegalStateException("Shard file " + shardPath(filePath, Integer.toString(shard), count)
+                            + " of " + pathFor(count) + " is missing");
                 }
-                customers.add(new Customer(id, fullName, phone, email, createdAt));
             }
-            System.out.println("Loaded " + customers.size() + " customers from " + filePath);
-        } catch (IOException e) {
-            System.out.println("Failed to load customers: " + e.getMessage());
+            return count;
         }
+        return 0;
+    }
+
+    // The snapshot written with the given shard count: its file, or a pattern naming its shard files.
+    private String pathFor(int shardCount) {
+        return shardCount == 1 ? filePath : shardPath(filePath, "*", shardCount);
+    }
+
+    private int configuredShardCount() {
+        return shards == null ? 1 : shards.length;
+    }
+
+    private List<Customer> read(int shardCount) throws IOException {
+        if (shardCount == 0) {
+            return new ArrayList<>();
+        }
+        long started = Metrics.start(Metrics.Op.SNAPSHOT_LOAD);
+        List<Customer> customers;
+        if (shardCount == configuredShardCount()) {
+            customers = readConfigured();
+        } else {
+            customers = new FileStorage(filePath, shardCount).readConfigured();
+            migratingFrom = shardCount;
+            System.out.println("Migrating the snapshot from " + pathFor(shardCount) + " to " + getFilePath()
+                    + "; the old files are removed after the next save.");
+        }
+        Metrics.addVolume(Metrics.Op.SNAPSHOT_LOAD, customers.size(), bytesOnDisk());
+        Metrics.stop(Metrics.Op.SNAPSHOT_LOAD, started);
         return customers;
     }
 
-    private List<String> parseCsvLine(String line) {
-        List<String> fields = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-        for (int i = 0; i < line.length(); i++) {
-            char ch = line.charAt(i);
-            if (ch == '"') {
-                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                    current.append('"');
-                    i++;
+    private List<Customer> readConfigured() throws IOException {
+        return shards == null ? readFile() : concat(onEachShard((index, shard) -> shard.readFile()));
+    }
+
+    // Called once the configured files are written, so the migrated snapshot is no longer needed.
+    private void removeMigratedSnapshot() {
+        int shardCount = migratingFrom;
+        if (shardCount == 0) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        if (shardCount == 1) {
+            files.add(Paths.get(filePath));
+        } else {
+            for (int shard = 0; shard < shardCount; shard++) {
+                files.add(Paths.get(shardPath(filePath, Integer.toString(shard), shardCount)));
+            }
+        }
+        try {
+            for (Path file : files) {
+                if (Files.isDirectory(file)) {
+                    try (Stream<Path> tree = Files.walk(file)) {
+                        for (Path entry : (Iterable<Path>) tree.sorted(Comparator.reverseOrder())::iterator) {
+                            Files.delete(entry);
+                        }
+                    }
                 } else {
-                    inQuotes = !inQuotes;
+                    Files.deleteIfExists(file);
                 }
-            } else if (ch == ',' && !inQuotes) {
-                fields.add(current.toString());
-                current.setLength(0);
-            } else {
-                current.append(ch);
             }
+            migratingFrom = 0;
+            System.out.println("Removed the migrated snapshot " + pathFor(shardCount));
+        } catch (IOException e) {
+            System.out.println("Failed to remove the migrated snapshot " + pathFor(shardCount) + ": " + e.getMessage());
+        }
+    }
+
+    private List<List<Customer>> partition(Iterable<Customer> customers) {
+        List<List<Customer>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Customer customer : customers) {
+            parts.get(Shards.of(customer.getId(), shards.length)).add(customer);
+        }
+        return parts;
+    }
+
+    // Runs the task for every shard on the fork-join pool and returns the results in shard order.
+    private <T> List<T> onEachShard(ShardTask<T> task) throws IOException {
+        List<Callable<T>> calls = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int index = i;
+            calls.add(() -> task.run(index, shards[index]));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        try {
+            for (Future<T> result : ForkJoinPool.commonPool().invokeAll(calls)) {
+                results.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the shard files");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
         }
-        fields.add(current.toString());
-        return fields;
+        return results;
+    }
+
+    private static int sum(List<Integer> counts) {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static List<Customer> concat(List<List<Customer>> parts) {
+        int total = 0;
+        for (List<Customer> part : parts) {
+            total += part.size();
+        }
+        List<Customer> customers = new ArrayList<>(total);
+        for (List<Customer> part : parts) {
+            customers.addAll(part);
+        }
+        return customers;
+    }
+
+    // customers.csv becomes customers-0-of-4.csv; a directory part with a dot is left alone.
+    private static String shardPath(String filePath, String shard, int count) {
+        int dot = filePath.lastIndexOf('.');
+        String suffix = "-" + shard + "-of-" + count;
+        if (dot <= filePath.lastIndexOf('/')) {
+            return filePath + suffix;
+        }
+        return filePath.substring(0, dot) + suffix + filePath.substring(dot);
+    }
+
+    private static int writeCsv(Path path, Iterable<Customer> customers) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("id,fullName,phone,email,createdAt");
+            writer.newLine();
+            int written = 0;
+            for (Customer customer : customers) {
+                writer.write(customer.toCsvLine());
+                writer.newLine();
+                written++;
+            }
+            return written;
+        }
+    }
+
+    // Shard files are read in parallel and returned one shard after another.
+    List<Customer> readCustomers() throws IOException {
+        return read(shardCountOnDisk());
+    }
+
+    private long bytesOnDisk() {
+        if (!Metrics.ENABLED) {
+            return 0;
+        }
+        if (shards == null) {
+            return sizeOf(Paths.get(filePath));
+        }
+        long bytes = 0;
+        for (FileStorage shard : shards) {
+            bytes += sizeOf(Paths.get(shard.filePath));
+        }
+        return bytes;
+    }
+
+    // Bytes in the snapshot file, or in all the segment files of a segmented snapshot. Only feeds
+    // the metrics, so a file that disappears while being counted is simply left out.
+    private static long sizeOf(Path path) {
+        if (!Metrics.ENABLED) {
+            return 0;
+        }
+        try {
+            if (!Files.isDirectory(path)) {
+                return Files.size(path);
+            }
+            try (Stream<Path> files = Files.list(path)) {
+                return files.mapToLong(file -> file.toFile().length()).sum();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private interface ShardTask<T> {
+        T run(int index, FileStorage shard) throws IOException;
     }
 }
@@ -0,0 +1,283 @@
+package storage;
+
+import model.Customer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Serves customers straight out of a memory-mapped snapshot without loading it, decoding a row only
+// when it is asked for. A version 2 binary snapshot carries an id index, so opening one costs the
+// same at any size; for CSV and older binary files the index is built by one pass over the records
+// that only reads their ids. Changes still in the journal are laid over the file by
+// CustomerJournal.openPreview(). The snapshot's checksum is not verified here; the full load that
+// follows does that.
+public class LazySnapshot implements Iterable<Customer> {
+    private final MappedByteBuffer data;
+    private final boolean binary;
+    private final int recordsStart;
+    private final int recordsEnd;
+    private final int count;
+    private final int distinct;
+    // Either a mapped version 2 index at indexStart, or ids and offsets sorted by id.
+    private final int indexStart;
+    private final int[] ids;
+    private final int[] offsets;
+
+    private Map<Integer, Customer> overlay = Map.of();
+    private Set<Integer> touched = Set.of();
+    private int size;
+
+    private LazySnapshot(MappedByteBuffer data, boolean binary, int recordsStart, int recordsEnd, int count,
+                         int distinct, int indexStart, int[] ids, int[] offsets) {
+        this.data = data;
+        this.binary = binary;
+        this.recordsStart = recordsStart;
+        this.recordsEnd = recordsEnd;
+        this.count = count;
+        this.distinct = distinct;
+        this.indexStart = indexStart;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.size = distinct;
+    }
+
+    // Maps the file and finds or builds its id index. Files too large for one mapping are not
+    // supported and give null.
+    static LazySnapshot open(Path path, boolean binary) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (!binary) {
+                return scanCsv(data);
+            }
+            if (size < BinarySnapshot.HEADER_BYTES + 4 || data.getInt(0) != BinarySnapshot.MAGIC) {
+                throw new IOException("Not a customer snapshot: " + path);
+            }
+            int version = data.getInt(4);
+            int count = (int) data.getLong(8);
+            if (version == 1) {
+                return scanBinary(data, count);
+            }
+            if (version != BinarySnapshot.VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            }
+            int indexStart = (int) BinarySnapshot.indexOffset(channel, size);
+            int distinct = data.getInt((int) size - 4 - BinarySnapshot.FOOTER_BYTES);
+            return new LazySnapshot(data, true, BinarySnapshot.HEADER_BYTES, indexStart, count, distinct, indexStart,
+                    null, null);
+        }
+    }
+
+    public Customer find(int id) {
+        if (touched.contains(id)) {
+            return overlay.get(id);
+        }
+        int offset = offsetOf(id);
+        return offset < 0 ? null : decode(offset, new int[1]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Walks the records in file order with the journal's changes applied in place; customers the
+    // journal added come last, as they do after a full load.
+    @Override
+    public Iterator<Customer> iterator() {
+        return new Iterator<Customer>() {
+            private final int[] position = {recordsStart};
+            private final Set<Integer> replaced = new HashSet<>();
+            private Iterator<Customer> added;
+            private Customer next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && position[0] < recordsEnd) {
+                    int offset = position[0];
+                    Customer customer = decode(offset, position);
+                    if (customer != null && offsetOf(customer.getId()) != offset) {
+                        // A later record repeating an id; the full load keeps the first.
+                        customer = null;
+                    } else if (customer != null && touched.contains(customer.getId())) {
+                        customer = replaced.add(customer.getId()) ? overlay.get(customer.getId()) : null;
+                    }
+                    next = customer;
+                }
+                if (next == null) {
+                    if (added == null) {
+                        added = overlay.values().stream().filter(customer -> offsetOf(customer.getId()) < 0).iterator();
+                    }
+                    if (added.hasNext()) {
+                        next = added.next();
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Customer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Customer customer = next;
+                next = null;
+                return customer;
+            }
+        };
+    }
+
+    // touchedIds holds every id the journal mentions; those missing from customers were deleted.
+    void overlay(Map<Integer, Customer> customers, Set<Integer> touchedIds) {
+        overlay = customers;
+        touched = touchedIds;
+        size = distinct;
+        for (Integer id : touchedIds) {
+            size += (customers.get(id) != null ? 1 : 0) - (offsetOf(id) >= 0 ? 1 : 0);
+        }
+    }
+
+    private int offsetOf(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = idAt(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                // A repeated id resolves to its first record, as the full load does.
+                while (mid > 0 && idAt(mid - 1) == id) {
+                    mid--;
+                }
+                return offsetAt(mid);
+            }
+        }
+        return -1;
+    }
+
+    private int idAt(int entry) {
+        return ids != null ? ids[entry] : data.getInt(indexStart + entry * BinarySnapshot.INDEX_ENTRY_BYTES);
+    }
+
+    private int offsetAt(int entry) {
+        return ids != null ? offsets[entry] : (int) data.getLong(indexStart + entry * BinarySnapshot.INDEX_ENTRY_BYTES + 4);
+    }
+
+    // Decodes the record at offset and stores the offset of the record after it in next[0]. Rows
+    // that do not parse come back as null.
+    private Customer decode(int offset, int[] next) {
+        if (!binary) {
+            CsvTokenizer tokenizer = new CsvTokenizer(data);
+            next[0] = tokenizer.next(offset);
+            return tokenizer.fieldCount() == 0 ? null : ParallelCsvLoader.toCustomer(tokenizer);
+        }
+        int id = data.getInt(offset);
+        long epochSecond = data.getLong(offset + 4);
+        int nano = data.getInt(offset + 12);
+        next[0] = offset + 16;
+        String fullName = readString(next);
+        String phone = readString(next);
+        String email = readString(next);
+        return new Customer(id, fullName, phone, email, epochSecond, nano);
+    }
+
+    private String readString(int[] position) {
+        int length = data.getInt(position[0]);
+        position[0] += 4;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.get(position[0], bytes);
+        position[0] += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LazySnapshot scanBinary(MappedByteBuffer data, int count) {
+        int[] ids = new int[count];
+        int[] offsets = new int[count];
+        int position = BinarySnapshot.HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            ids[i] = data.getInt(position);
+            offsets[i] = position;
+            position += 16;
+            for (int field = 0; field < 3; field++) {
+                position += 4 + Math.max(0, data.getInt(position));
+            }
+        }
+        return sortedIndex(data, true, BinarySnapshot.HEADER_BYTES, position, count, ids, offsets);
+    }
+
+    private static LazySnapshot scanCsv(MappedByteBuffer data) {
+        int[] ids = new int[1024];
+        int[] offsets = new int[1024];
+        int count = 0;
+        CsvTokenizer tokenizer = new CsvTokenizer(data);
+        int position = 0;
+        while (position < data.limit()) {
+            int start = position;
+            position = tokenizer.next(position);
+            if (tokenizer.fieldCount() < 5) {
+                continue;
+            }
+            long id = tokenizer.parseInt(0);
+            if (id == Long.MIN_VALUE) {
+                continue;
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            ids[count] = (int) id;
+            offsets[count] = start;
+            count++;
+        }
+        return sortedIndex(data, false, 0, data.limit(), count, ids, offsets);
+    }
+
+    private static LazySnapshot sortedIndex(MappedByteBuffer data, boolean binary, int recordsStart, int recordsEnd,
+                                            int count, int[] ids, int[] offsets) {
+        boolean sorted = true;
+        for (int i = 1; i < count && sorted; i++) {
+            sorted = ids[i - 1] <= ids[i];
+        }
+        if (!sorted) {
+            // Same packed (id, record number) sort as the version 2 index, so ties keep file order.
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedIds = new int[count];
+            int[] sortedOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedIds[i] = (int) (order[i] >> 32);
+                sortedOffsets[i] = offsets[(int) order[i]];
+            }
+            ids = sortedIds;
+            offsets = sortedOffsets;
+        }
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                distinct++;
+            }
+        }
+        return new LazySnapshot(data, binary, recordsStart, recordsEnd, count, distinct, -1, ids, offsets);
+    }
+}
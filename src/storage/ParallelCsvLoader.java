@@ -0,0 +1,136 @@
+package storage;
+
+import model.Customer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Splits a memory-mapped CSV file into byte ranges that are parsed on the common fork-join pool.
+// A range owns every record that starts inside it, so records may run past its end. Quoted fields
+// can contain newlines, so each range first learns whether it begins inside quotes from the
+// quote parity of the ranges before it.
+class ParallelCsvLoader {
+    private static final long MIN_CHUNK_BYTES = 4L << 20;
+    // A chunk is read through one mapping, which holds at most Integer.MAX_VALUE bytes; the rest of
+    // that mapping past the chunk is left for the record that runs over its end.
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    List<Customer> load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return new ArrayList<>();
+            }
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            long chunks = Math.max(1, Math.min(pool.getParallelism() * 4L, size / MIN_CHUNK_BYTES));
+            int chunkCount = (int) Math.max(chunks, (size + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+            long[] bounds = new long[chunkCount + 1];
+            for (int i = 0; i <= chunkCount; i++) {
+                bounds[i] = size * i / chunkCount;
+            }
+
+            List<ForkJoinTask<Boolean>> parityTasks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                parityTasks.add(pool.submit(() -> hasOddQuotes(channel, start, end)));
+            }
+            boolean[] startsQuoted = new boolean[chunkCount];
+            boolean quoted = false;
+            for (int i = 0; i < chunkCount; i++) {
+                startsQuoted[i] = quoted;
+                quoted ^= parityTasks.get(i).join();
+            }
+
+            List<ForkJoinTask<List<Customer>>> parseTasks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                boolean inQuotes = startsQuoted[i];
+                parseTasks.add(pool.submit(() -> parseChunk(channel, start, end, inQuotes)));
+            }
+            List<List<Customer>> parts = new ArrayList<>(chunkCount);
+            int total = 0;
+            for (ForkJoinTask<List<Customer>> task : parseTasks) {
+                List<Customer> part = task.join();
+                parts.add(part);
+                total += part.size();
+            }
+            List<Customer> customers = new ArrayList<>(total);
+            for (List<Customer> part : parts) {
+                customers.addAll(part);
+            }
+            return customers;
+        }
+    }
+
+    private static boolean hasOddQuotes(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        int quotes = 0;
+        while (buffer.hasRemaining()) {
+            if (buffer.get() == '"') {
+                quotes++;
+            }
+        }
+        return (quotes & 1) == 1;
+    }
+
+    private static List<Customer> parseChunk(FileChannel channel, long start, long end, boolean inQuotes) throws IOException {
+        List<Customer> customers = new ArrayList<>();
+        long mapStart = Math.max(0, start - 1);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart,
+                Math.min(channel.size() - mapStart, Integer.MAX_VALUE));
+        int limit = (int) (end - mapStart);
+        int pos = (int) (start - mapStart);
+        if (start > 0 && !(buffer.get(pos - 1) == '\n' && !inQuotes)) {
+            pos = CsvTokenizer.skipRecord(buffer, pos, inQuotes);
+        }
+
+        CsvTokenizer tokenizer = new CsvTokenizer(buffer);
+        boolean headerPossible = start == 0;
+        while (pos < limit) {
+            pos = tokenizer.next(pos);
+            if (tokenizer.fieldCount() == 0) {
+                continue;
+            }
+            if (headerPossible) {
+                headerPossible = false;
+                if (tokenizer.startsWithIgnoreCase("id,")) {
+                    continue;
+                }
+            }
+            Customer customer = toCustomer(tokenizer);
+            if (customer != null) {
+                customers.add(customer);
+            }
+        }
+        return customers;
+    }
+
+    static Customer toCustomer(CsvTokenizer record) {
+        if (record.fieldCount() < 5) {
+            return null;
+        }
+        long id = record.parseInt(0);
+        if (id == Long.MIN_VALUE) {
+            return null;
+        }
+        CharSequence fullName = record.chars(1);
+        CharSequence phone = record.chars(2);
+        CharSequence email = record.chars(3);
+        if (record.parseTimestamp(4)) {
+            return new Customer((int) id, fullName, phone, email, record.timestampSecond(), record.timestampNano());
+        }
+        LocalDateTime now = LocalDateTime.now();
+        return new Customer((int) id, fullName, phone, email, now.toEpochSecond(ZoneOffset.UTC), now.getNano());
+    }
+}
@@ -0,0 +1,107 @@
+package storage;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Takes durability work off the caller's thread. Mutations are logged to the journal without an
+// fsync and reported here with markDirty(); a burst of them is covered by a single journal sync
+// once syncDelayMillis has passed or syncAfterOps have piled up. Changes are also folded into the
+// snapshot checkpointDelayMillis after the first one since the last checkpoint. That fold reads the
+// sealed journal and the old snapshot and replaces the snapshot through a temp file and an atomic
+// rename, so it never walks the live customers and readers never see a torn file.
+public class PersistenceScheduler implements AutoCloseable {
+    private final CustomerJournal journal;
+    private final long syncDelayMillis;
+    private final int syncAfterOps;
+    private final long checkpointDelayMillis;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private int pendingOps;
+    private ScheduledFuture<?> scheduledSync;
+    private ScheduledFuture<?> scheduledCheckpoint;
+    private boolean closed;
+
+    public PersistenceScheduler(CustomerJournal journal, long syncDelayMillis, int syncAfterOps, long checkpointDelayMillis) {
+        this.journal = journal;
+        this.syncDelayMillis = syncDelayMillis;
+        this.syncAfterOps = Math.max(1, syncAfterOps);
+        this.checkpointDelayMillis = checkpointDelayMillis;
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "persistence-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Interrupting a task would close the journal's channel, so close() lets a running task
+        // finish and only drops the ones still waiting.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    public void markDirty() {
+        markDirty(1);
+    }
+
+    public synchronized void markDirty(int operations) {
+        if (closed) {
+            return;
+        }
+        pendingOps += operations;
+        if (pendingOps >= syncAfterOps) {
+            if (scheduledSync != null) {
+                scheduledSync.cancel(false);
+            }
+            scheduledSync = executor.schedule(this::sync, 0, TimeUnit.MILLISECONDS);
+        } else if (scheduledSync == null) {
+            scheduledSync = executor.schedule(this::sync, syncDelayMillis, TimeUnit.MILLISECONDS);
+        }
+        if (scheduledCheckpoint == null) {
+            scheduledCheckpoint = executor.schedule(this::checkpoint, checkpointDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Starts a checkpoint now instead of waiting for the delay; it still runs in the background.
+    public synchronized void checkpointNow() {
+        if (closed) {
+            return;
+        }
+        if (scheduledCheckpoint != null) {
+            scheduledCheckpoint.cancel(false);
+        }
+        scheduledCheckpoint = executor.schedule(this::checkpoint, 0, TimeUnit.MILLISECONDS);
+    }
+
+    // Drops the delayed work, waits for anything already running and syncs whatever is left. The
+    // journal still holds every change, so a checkpoint that never ran is made up on the next load.
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.sync();
+    }
+
+    private void sync() {
+        synchronized (this) {
+            pendingOps = 0;
+            scheduledSync = null;
+        }
+        journal.sync();
+    }
+
+    private void checkpoint() {
+        synchronized (this) {
+            scheduledCheckpoint = null;
+        }
+        journal.sync();
+        journal.compact();
+    }
+}
@@ -0,0 +1,125 @@
+package storage;
+
+import model.Customer;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+// A snapshot split into a directory of binary segment files, one per block of IDS_PER_SEGMENT ids,
+// so a save only has to rewrite the segments whose customers changed. Each segment file is written
+// in the BinarySnapshot format to a temp file and renamed over the old one, so a crash leaves every
+// segment either old or new, never torn. A crash between segments leaves a mix of both, which the
+// journal covers: it is only cleared once every changed segment has been written, and replaying it
+// over either version gives the same result.
+class SegmentedSnapshot {
+    static final int IDS_PER_SEGMENT = 4096;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".bin";
+    private static final int SEGMENT_BUFFER_BYTES = 1 << 20;
+
+    static int segmentOf(int id) {
+        return Math.floorDiv(id, IDS_PER_SEGMENT);
+    }
+
+    // Reads every segment in id order.
+    static List<Customer> read(Path directory) throws IOException {
+        List<Customer> customers = new ArrayList<>();
+        for (Integer segment : listSegments(directory)) {
+            customers.addAll(BinarySnapshot.read(segmentPath(directory, segment)));
+        }
+        return customers;
+    }
+
+    static List<Customer> readSegments(Path directory, Collection<Integer> segments) throws IOException {
+        List<Customer> customers = new ArrayList<>();
+        for (Integer segment : segments) {
+            Path path = segmentPath(directory, segment);
+            if (Files.exists(path)) {
+                customers.addAll(BinarySnapshot.read(path));
+            }
+        }
+        return customers;
+    }
+
+    // Replaces the whole snapshot, removing segments that no longer hold any customer.
+    static int writeAll(Path directory, Iterable<Customer> customers) throws IOException {
+        Map<Integer, List<Customer>> bySegment = new TreeMap<>();
+        for (Customer customer : customers) {
+            bySegment.computeIfAbsent(segmentOf(customer.getId()), segment -> new ArrayList<>()).add(customer);
+        }
+        Files.createDirectories(directory);
+        int written = 0;
+        for (Map.Entry<Integer, List<Customer>> entry : bySegment.entrySet()) {
+            written += writeSegment(directory, entry.getKey(), entry.getValue());
+        }
+        for (Integer segment : listSegments(directory)) {
+            if (!bySegment.containsKey(segment)) {
+                Files.deleteIfExists(segmentPath(directory, segment));
+            }
+        }
+        return written;
+    }
+
+    // Rewrites the given segments from the customers lookup returns for their ids.
+    static int writeSegments(Path directory, Collection<Integer> segments, IntFunction<Customer> lookup) throws IOException {
+        Files.createDirectories(directory);
+        int written = 0;
+        for (Integer segment : segments) {
+            List<Customer> customers = new ArrayList<>();
+            long first = (long) segment * IDS_PER_SEGMENT;
+            for (long id = first; id < first + IDS_PER_SEGMENT; id++) {
+                Customer customer = lookup.apply((int) id);
+                if (customer != null) {
+                    customers.add(customer);
+                }
+            }
+            written += writeSegment(directory, segment, customers);
+        }
+        return written;
+    }
+
+    // Writes one segment, or deletes it when it has no customers left. Returns the number written.
+    static int writeSegment(Path directory, int segment, List<Customer> customers) throws IOException {
+        Path target = segmentPath(directory, segment);
+        if (customers.isEmpty()) {
+            Files.deleteIfExists(target);
+            return 0;
+        }
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        int written = BinarySnapshot.write(temp, customers, SEGMENT_BUFFER_BYTES);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private static List<Integer> listSegments(Path directory) throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(PREFIX + segment + SUFFIX);
+    }
+}
@@ -23,7 +23,7 @@ public class InputHelper {
     public String readPhoneNumber(String prompt) {
         while (true) {
             String input = readNonEmptyString(prompt);
-            if (input.matches("\\d+")) {
+            if (Validation.isValidPhone(input)) {
                 return input;
             }
             System.out.println("Phone must contain digits only.");
@@ -33,7 +33,7 @@ public class InputHelper {
     public String readEmail(String prompt) {
         while (true) {
             String input = readNonEmptyString(prompt);
-            if (input.contains("@") && !input.startsWith("@") && !input.endsWith("@")) {
+            if (Validation.isValidEmail(input)) {
                 return input;
             }
             System.out.println("Email must contain '@'.");
@@ -0,0 +1,251 @@
+package util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// Kept as a run of sorted blocks of at most BLOCK_SIZE values rather than one array, so adding or
+// removing a value in the middle of a large posting list shifts one block instead of the whole list.
+// A small set is a single block that grows as needed, as compact as a plain array.
+public class IntSortedSet {
+    private static final int BLOCK_SIZE = 256;
+
+    // blocks[0..blockCount) hold counts[b] values each, every value in a block below every value in
+    // the next. Only an empty set has an empty block.
+    private int[][] blocks;
+    private int[] counts;
+    private int blockCount;
+    private int size;
+
+    public IntSortedSet() {
+        this(4);
+    }
+
+    public IntSortedSet(int initialCapacity) {
+        blocks = new int[][]{new int[Math.max(1, Math.min(initialCapacity, BLOCK_SIZE))]};
+        counts = new int[1];
+        blockCount = 1;
+    }
+
+    public boolean add(int value) {
+        int last = blockCount - 1;
+        // Ids are mostly handed out in increasing order, so appending is the common case.
+        if (size == 0 || blocks[last][counts[last] - 1] < value) {
+            if (counts[last] == BLOCK_SIZE) {
+                insertBlock(blockCount, new int[BLOCK_SIZE], 0);
+                last++;
+            }
+            insert(last, counts[last], value);
+            return true;
+        }
+        int block = blockFor(value, 0);
+        int index = Arrays.binarySearch(blocks[block], 0, counts[block], value);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -index - 1;
+        if (counts[block] == BLOCK_SIZE) {
+            split(block);
+            if (insertAt > counts[block]) {
+                insertAt -= counts[block];
+                block++;
+            }
+        }
+        insert(block, insertAt, value);
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int block = blockFor(value, 0);
+        if (block == blockCount) {
+            return false;
+        }
+        int index = Arrays.binarySearch(blocks[block], 0, counts[block], value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(blocks[block], index + 1, blocks[block], index, counts[block] - index - 1);
+        counts[block]--;
+        size--;
+        if (counts[block] == 0 && blockCount > 1) {
+            removeBlock(block);
+        } else if (block + 1 < blockCount && counts[block] + counts[block + 1] <= BLOCK_SIZE / 2) {
+            mergeWithNext(block);
+        } else if (block > 0 && counts[block - 1] + counts[block] <= BLOCK_SIZE / 2) {
+            mergeWithNext(block - 1);
+        }
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int block = blockFor(value, 0);
+        return block < blockCount && Arrays.binarySearch(blocks[block], 0, counts[block], value) >= 0;
+    }
+
+    // Visits every value in ascending order until the visitor returns false. Returns false if it stopped early.
+    public boolean forEach(IntPredicate visitor) {
+        for (int b = 0; b < blockCount; b++) {
+            int[] block = blocks[b];
+            for (int i = 0; i < counts[b]; i++) {
+                if (!visitor.test(block[i])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Visits every value present in all of the given sets, in ascending order, until the visitor returns false.
+    public static void forEachCommon(List<IntSortedSet> sets, IntPredicate visitor) {
+        if (sets.isEmpty()) {
+            return;
+        }
+        IntSortedSet smallest = sets.get(0);
+        for (IntSortedSet set : sets) {
+            if (set.size < smallest.size) {
+                smallest = set;
+            }
+        }
+        // Each other set keeps a cursor that only moves forward, as the values visited only grow.
+        int[] cursorBlocks = new int[sets.size()];
+        int[] cursorIndexes = new int[sets.size()];
+        for (int b = 0; b < smallest.blockCount; b++) {
+            for (int i = 0; i < smallest.counts[b]; i++) {
+                int value = smallest.blocks[b][i];
+                boolean inAll = true;
+                for (int s = 0; s < sets.size() && inAll; s++) {
+                    IntSortedSet other = sets.get(s);
+                    if (other == smallest) {
+                        continue;
+                    }
+                    int block = other.blockFor(value, cursorBlocks[s]);
+                    if (block == other.blockCount) {
+                        return;
+                    }
+                    int from = block == cursorBlocks[s] ? cursorIndexes[s] : 0;
+                    int index = Arrays.binarySearch(other.blocks[block], from, other.counts[block], value);
+                    cursorBlocks[s] = block;
+                    cursorIndexes[s] = index >= 0 ? index : -index - 1;
+                    inAll = index >= 0;
+                }
+                if (inAll && !visitor.test(value)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + size);
+        }
+        int block = 0;
+        while (index >= counts[block]) {
+            index -= counts[block++];
+        }
+        return blocks[block][index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(blocks, 1, blockCount, null);
+        counts[0] = 0;
+        blockCount = 1;
+        size = 0;
+    }
+
+    public int[] toArray() {
+        int[] values = new int[size];
+        int at = 0;
+        for (int b = 0; b < blockCount; b++) {
+            System.arraycopy(blocks[b], 0, values, at, counts[b]);
+            at += counts[b];
+        }
+        return values;
+    }
+
+    // The first block from `from` on whose last value is >= value, or blockCount when there is none.
+    // Gallops first, so a cursor moving through a long list skips ahead cheaply.
+    private int blockFor(int value, int from) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < blockCount && lastOf(high) < value) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, blockCount);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lastOf(middle) < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int lastOf(int block) {
+        return counts[block] == 0 ? Integer.MIN_VALUE : blocks[block][counts[block] - 1];
+    }
+
+    private void insert(int block, int index, int value) {
+        int[] values = blocks[block];
+        if (counts[block] == values.length) {
+            values = Arrays.copyOf(values, Math.min(BLOCK_SIZE, values.length + (values.length >> 1) + 1));
+            blocks[block] = values;
+        }
+        System.arraycopy(values, index, values, index + 1, counts[block] - index);
+        values[index] = value;
+        counts[block]++;
+        size++;
+    }
+
+    // Moves the upper half of a full block into a new block after it.
+    private void split(int block) {
+        int[] upper = new int[BLOCK_SIZE];
+        int keep = BLOCK_SIZE / 2;
+        System.arraycopy(blocks[block], keep, upper, 0, BLOCK_SIZE - keep);
+        counts[block] = keep;
+        insertBlock(block + 1, upper, BLOCK_SIZE - keep);
+    }
+
+    private void mergeWithNext(int block) {
+        int merged = counts[block] + counts[block + 1];
+        if (blocks[block].length < merged) {
+            blocks[block] = Arrays.copyOf(blocks[block], BLOCK_SIZE);
+        }
+        System.arraycopy(blocks[block + 1], 0, blocks[block], counts[block], counts[block + 1]);
+        counts[block] = merged;
+        removeBlock(block + 1);
+    }
+
+    private void insertBlock(int at, int[] values, int count) {
+        if (blockCount == blocks.length) {
+            int capacity = blockCount + (blockCount >> 1) + 1;
+            blocks = Arrays.copyOf(blocks, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(blocks, at, blocks, at + 1, blockCount - at);
+        System.arraycopy(counts, at, counts, at + 1, blockCount - at);
+        blocks[at] = values;
+        counts[at] = count;
+        blockCount++;
+    }
+
+    private void removeBlock(int at) {
+        System.arraycopy(blocks, at + 1, blocks, at, blockCount - at - 1);
+        System.arraycopy(counts, at + 1, counts, at, blockCount - at - 1);
+        blockCount--;
+        blocks[blockCount] = null;
+    }
+}
@@ -0,0 +1,50 @@
+package util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Evicts the least recently used entry. A read reorders the map, so every access takes the lock.
+public class LruCache<K, V> extends RecordCache<K, V> {
+    private final LinkedHashMap<K, V> entries;
+
+    public LruCache(int capacity) {
+        super(capacity);
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > capacity()) {
+                    recordEviction();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    protected synchronized V lookup(K key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+}
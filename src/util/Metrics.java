@@ -0,0 +1,318 @@
+package util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+// Process-wide counters and latency histograms for the service and storage hot paths. A call site
+// brackets the work with start() and stop():
+//
+//     long started = Metrics.start(Metrics.Op.SEARCH_BY_NAME);
+//     ... work ...
+//     Metrics.stop(Metrics.Op.SEARCH_BY_NAME, started);
+//
+// -Dcustomers.metrics=false turns recording off. ENABLED is a constant, so the JIT drops the
+// disabled branches and an instrumented call costs nothing beyond the untaken check. When
+// enabled, one call in ALLOCATION_SAMPLE_EVERY per operation also measures the bytes its thread
+// allocated, which keeps the thread-allocation counter off the common path.
+public final class Metrics {
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("customers.metrics"));
+    private static final int ALLOCATION_SAMPLE_EVERY = 64;
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+    private static final String MBEAN_NAME = "customers:type=Metrics";
+    // Sorted by name, so the shards' caches are listed in order.
+    private static final Map<String, RecordCache<?, ?>> CACHES = new ConcurrentSkipListMap<>();
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+    private static final ThreadLocal<long[]> ALLOCATION_STARTS = ThreadLocal.withInitial(() -> {
+        long[] starts = new long[Op.values().length];
+        Arrays.fill(starts, NOT_SAMPLED);
+        return starts;
+    });
+
+    public enum Op {
+        FIND_BY_ID,
+        SEARCH_BY_NAME,
+        SEARCH_BY_NAME_FUZZY,
+        SEARCH_BY_PHONE,
+        FIND_BY_CONTACT,
+        ADD,
+        UPDATE,
+        DELETE,
+        LIST_BY_NAME,
+        LIST_BY_NEWEST,
+        IMPORT,
+        REPORT,
+        SNAPSHOT_LOAD,
+        SNAPSHOT_SAVE,
+        JOURNAL_WRITE,
+        JOURNAL_SYNC,
+        CHECKPOINT;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder sampledCalls = new LongAdder();
+        private final LongAdder sampledAllocatedBytes = new LongAdder();
+        // Racy on purpose: a lost increment only shifts which call gets sampled.
+        private int untilSample;
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        public long rows() {
+            return rows.sum();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        // Average bytes allocated by the calling thread per sampled call, or -1 before any sample.
+        public long allocatedBytesPerCall() {
+            long calls = sampledCalls.sum();
+            return calls == 0 ? -1 : sampledAllocatedBytes.sum() / calls;
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Returns the start time to pass to stop(), or 0 when metrics are disabled.
+    public static long start(Op op) {
+        if (!ENABLED) {
+            return 0;
+        }
+        if (THREADS != null && --op.untilSample < 0) {
+            op.untilSample = ALLOCATION_SAMPLE_EVERY - 1;
+            ALLOCATION_STARTS.get()[op.ordinal()] = THREADS.getCurrentThreadAllocatedBytes();
+        }
+        return System.nanoTime();
+    }
+
+    public static void stop(Op op, long started) {
+        if (!ENABLED) {
+            return;
+        }
+        op.latency.record(System.nanoTime() - started);
+        if (THREADS != null) {
+            long[] starts = ALLOCATION_STARTS.get();
+            long allocationStart = starts[op.ordinal()];
+            if (allocationStart != NOT_SAMPLED) {
+                starts[op.ordinal()] = NOT_SAMPLED;
+                op.sampledAllocatedBytes.add(THREADS.getCurrentThreadAllocatedBytes() - allocationStart);
+                op.sampledCalls.increment();
+            }
+        }
+    }
+
+    // Records the rows and bytes an operation read or wrote.
+    public static void addVolume(Op op, long rows, long bytes) {
+        if (ENABLED) {
+            op.rows.add(rows);
+            op.bytes.add(bytes);
+        }
+    }
+
+    // Lists the cache's hit and miss counts in the report under name, replacing any cache
+    // registered under the same name before.
+    public static void registerCache(String name, RecordCache<?, ?> cache) {
+        if (ENABLED) {
+            CACHES.put(name, cache);
+        }
+    }
+
+    public static void reset() {
+        for (Op op : Op.values()) {
+            op.latency.reset();
+            op.rows.reset();
+            op.bytes.reset();
+            op.sampledCalls.reset();
+            op.sampledAllocatedBytes.reset();
+        }
+    }
+
+    // Registers the MBean with the platform MBean server; an existing registration is kept.
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(new MBean(), MetricsMBean.class), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // One line per operation that has run, then the collector and heap figures of the JVM.
+    public static String report() {
+        if (!ENABLED) {
+            return "Metrics are disabled (-Dcustomers.metrics=false).";
+        }
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-16s %9s %10s %10s %10s %10s %10s %12s %12s%n",
+                "operation", "count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us", "rows", "alloc B/op"));
+        for (Op op : Op.values()) {
+            LatencyHistogram latency = op.latency;
+            if (latency.count() == 0) {
+                continue;
+            }
+            long allocated = op.allocatedBytesPerCall();
+            out.append(String.format(Locale.ROOT, "%-16s %9d %10.1f %10.1f %10.1f %10.1f %10.1f %12d %12s%n",
+                    op.name().toLowerCase(Locale.ROOT), latency.count(), latency.meanNanos() / 1e3,
+                    micros(latency.percentileNanos(50)), micros(latency.percentileNanos(99)),
+                    micros(latency.percentileNanos(99.9)), micros(latency.maxNanos()), op.rows(),
+                    allocated < 0 ? "-" : Long.toString(allocated)));
+            if (op.bytes() > 0) {
+                out.append(String.format(Locale.ROOT, "%-16s %,d bytes%n", "", op.bytes()));
+            }
+        }
+        for (Map.Entry<String, RecordCache<?, ?>> cache : CACHES.entrySet()) {
+            out.append("cache ").append(cache.getKey()).append(": ").append(cache.getValue()).append('\n');
+        }
+        for (Map.Entry<String, long[]> collector : collectors().entrySet()) {
+            out.append(String.format(Locale.ROOT, "gc %s: %d collections, %d ms%n",
+                    collector.getKey(), collector.getValue()[0], collector.getValue()[1]));
+        }
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        out.append(String.format(Locale.ROOT, "heap used %d MB of %d MB committed", heap.getUsed() >> 20, heap.getCommitted() >> 20));
+        if (THREADS != null) {
+            out.append(String.format(Locale.ROOT, ", %d MB allocated by live threads",
+                    totalAllocatedBytes() >> 20));
+        }
+        return out.toString();
+    }
+
+    // Collector name to {collection count, collection time in ms}.
+    static Map<String, long[]> collectors() {
+        Map<String, long[]> collectors = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collectors.put(collector.getName(), new long[] {
+                    Math.max(0, collector.getCollectionCount()), Math.max(0, collector.getCollectionTime())});
+        }
+        return collectors;
+    }
+
+    static long totalAllocatedBytes() {
+        if (THREADS == null) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+
+    // Allocation sampling needs the HotSpot extension of ThreadMXBean; without it only latencies
+    // and volumes are recorded.
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+            if (hotspot.isThreadAllocatedMemorySupported() && hotspot.isThreadAllocatedMemoryEnabled()) {
+                return hotspot;
+            }
+        }
+        return null;
+    }
+
+    private static final class MBean implements MetricsMBean {
+        @Override
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        @Override
+        public String[] getOperations() {
+            Op[] ops = Op.values();
+            String[] names = new String[ops.length];
+            for (int i = 0; i < ops.length; i++) {
+                names[i] = ops[i].name().toLowerCase(Locale.ROOT);
+            }
+            return names;
+        }
+
+        @Override
+        public String getReport() {
+            return report();
+        }
+
+        @Override
+        public long getGcCollections() {
+            long total = 0;
+            for (long[] collector : collectors().values()) {
+                total += collector[0];
+            }
+            return total;
+        }
+
+        @Override
+        public long getGcTimeMillis() {
+            long total = 0;
+            for (long[] collector : collectors().values()) {
+                total += collector[1];
+            }
+            return total;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return totalAllocatedBytes();
+        }
+
+        @Override
+        public long count(String operation) {
+            return op(operation).latency.count();
+        }
+
+        @Override
+        public double meanMillis(String operation) {
+            return op(operation).latency.meanNanos() / 1e6;
+        }
+
+        @Override
+        public double percentileMillis(String operation, double percentile) {
+            return millis(op(operation).latency.percentileNanos(percentile));
+        }
+
+        @Override
+        public long rows(String operation) {
+            return op(operation).rows();
+        }
+
+        @Override
+        public long bytes(String operation) {
+            return op(operation).bytes();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+
+        private static Op op(String operation) {
+            return Op.valueOf(operation.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package util;
+
+// The JMX view of Metrics, registered as customers:type=Metrics. Operations are named as in
+// Metrics.Op, in any case.
+public interface MetricsMBean {
+    boolean isEnabled();
+
+    String[] getOperations();
+
+    String getReport();
+
+    long getGcCollections();
+
+    long getGcTimeMillis();
+
+    long getAllocatedBytes();
+
+    long count(String operation);
+
+    double meanMillis(String operation);
+
+    double percentileMillis(String operation, double percentile);
+
+    long rows(String operation);
+
+    long bytes(String operation);
+
+    void reset();
+}
@@ -0,0 +1,83 @@
+package util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+// A size-bounded cache with hit, miss and eviction counts. Implementations differ only in which
+// entry they give up when full: LruCache drops the least recently used one, TinyLfuCache keeps
+// entries that are used often over ones that were merely used last. Safe for concurrent use.
+public abstract class RecordCache<K, V> {
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    protected RecordCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // "lru" or "tinylfu"; anything else is rejected.
+    public static <K, V> RecordCache<K, V> create(String policy, int capacity) {
+        switch (policy) {
+            case "lru":
+                return new LruCache<>(capacity);
+            case "tinylfu":
+                return new TinyLfuCache<>(capacity);
+            default:
+                throw new IllegalArgumentException("Unknown cache policy: " + policy);
+        }
+    }
+
+    // Returns the cached value or null, counting a hit or a miss.
+    public final V get(K key) {
+        V value = lookup(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public abstract void put(K key, V value);
+
+    public abstract void remove(K key);
+
+    public abstract void clear();
+
+    public abstract int size();
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions",
+                getClass().getSimpleName(), size(), capacity, hits(), misses(), hitRate() * 100, evictions());
+    }
+
+    protected abstract V lookup(K key);
+
+    protected final void recordEviction() {
+        evictions.increment();
+    }
+}
@@ -0,0 +1,13 @@
+package util;
+
+// Which of count shards a customer id belongs to. The service and the snapshot files split
+// customers the same way, so shard i of a sharded service holds exactly the customers of shard
+// file i. Ids are handed out in sequence, so taking them modulo the count spreads them evenly.
+public final class Shards {
+    private Shards() {
+    }
+
+    public static int of(int id, int count) {
+        return Math.floorMod(id, count);
+    }
+}
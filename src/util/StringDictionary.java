@@ -0,0 +1,70 @@
+package util;
+
+// Hands back one shared instance of strings it has seen, so a name that thousands of customers
+// carry is held once. The table has a fixed number of slots and each value one slot
+// picked by its hash; a different value landing there replaces it, so unique values only pass
+// through and the table never grows. Slots are read and written without locks from any thread:
+// strings are immutable, so a reader sees either the old instance or the new one.
+public class StringDictionary {
+    private final String[] slots;
+    private final int mask;
+
+    public StringDictionary(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new String[size];
+        mask = size - 1;
+    }
+
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        int slot = slotOf(value.hashCode());
+        String held = slots[slot];
+        if (value.equals(held)) {
+            return held;
+        }
+        slots[slot] = value;
+        return value;
+    }
+
+    // The characters of text from start to end, shared when an equal string is in the table. A
+    // hit builds no string at all, which is what lets loaders look fields up straight from a
+    // reused buffer.
+    public String intern(CharSequence text, int start, int end) {
+        if (text == null) {
+            return null;
+        }
+        if (text instanceof String && start == 0 && end == text.length()) {
+            return intern((String) text);
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int slot = slotOf(hash);
+        String held = slots[slot];
+        if (held != null && matches(held, text, start, end)) {
+            return held;
+        }
+        String value = text.subSequence(start, end).toString();
+        slots[slot] = value;
+        return value;
+    }
+
+    private int slotOf(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static boolean matches(String held, CharSequence text, int start, int end) {
+        if (held.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (held.charAt(i - start) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
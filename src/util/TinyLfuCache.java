@@ -0,0 +1,175 @@
+package util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// W-TinyLFU: new entries land in a small LRU window; an entry leaving the window only enters the
+// main area if it has been asked for more often than the entry it would push out there. Frequencies
+// come from a count-min sketch of 4-bit counters that is halved periodically, so the cache tracks
+// recent popularity without remembering keys it does not hold. The main area is a segmented LRU:
+// entries hit again move from probation to the protected segment. One-off scans therefore do not
+// flush a hot working set the way they do in a plain LRU.
+public class TinyLfuCache<K, V> extends RecordCache<K, V> {
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final int mainCapacity;
+    // Insertion-ordered; an access re-inserts, so the first entry is always the least recent.
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, V> protectedEntries = new LinkedHashMap<>();
+    private final FrequencySketch sketch;
+
+    public TinyLfuCache(int capacity) {
+        super(capacity);
+        int total = capacity();
+        this.windowCapacity = Math.max(1, total / 100);
+        this.mainCapacity = Math.max(1, total - windowCapacity);
+        this.protectedCapacity = mainCapacity * 4 / 5;
+        this.sketch = new FrequencySketch(total);
+    }
+
+    @Override
+    protected synchronized V lookup(K key) {
+        sketch.increment(key.hashCode());
+        V value = window.remove(key);
+        if (value != null) {
+            window.put(key, value);
+            return value;
+        }
+        value = protectedEntries.remove(key);
+        if (value != null) {
+            protectedEntries.put(key, value);
+            return value;
+        }
+        value = probation.remove(key);
+        if (value != null) {
+            promote(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        if (window.containsKey(key)) {
+            window.put(key, value);
+            return;
+        }
+        if (protectedEntries.containsKey(key)) {
+            protectedEntries.put(key, value);
+            return;
+        }
+        if (probation.containsKey(key)) {
+            probation.put(key, value);
+            return;
+        }
+        // The miss that led to this put has already been counted by lookup().
+        window.put(key, value);
+        if (window.size() > windowCapacity) {
+            Iterator<K> oldest = window.keySet().iterator();
+            K candidate = oldest.next();
+            V candidateValue = window.get(candidate);
+            oldest.remove();
+            admit(candidate, candidateValue);
+        }
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedEntries.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedEntries.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedEntries.size();
+    }
+
+    // A window entry moves into probation if there is room, or if it is used more often than the
+    // probation entry that would make room for it. Otherwise it is the one dropped.
+    private void admit(K candidate, V value) {
+        if (probation.size() + protectedEntries.size() < mainCapacity) {
+            probation.put(candidate, value);
+            return;
+        }
+        Iterator<K> oldest = (probation.isEmpty() ? protectedEntries : probation).keySet().iterator();
+        K victim = oldest.next();
+        if (sketch.frequency(candidate.hashCode()) > sketch.frequency(victim.hashCode())) {
+            oldest.remove();
+            probation.put(candidate, value);
+        }
+        recordEviction();
+    }
+
+    private void promote(K key, V value) {
+        protectedEntries.put(key, value);
+        if (protectedEntries.size() > protectedCapacity) {
+            Iterator<K> oldest = protectedEntries.keySet().iterator();
+            K demoted = oldest.next();
+            V demotedValue = protectedEntries.get(demoted);
+            oldest.remove();
+            probation.put(demoted, demotedValue);
+        }
+    }
+
+    // Count-min sketch with four 4-bit counters per key, sixteen to a long. After ten increments per
+    // cache entry every counter is halved, so old popularity fades.
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int capacity) {
+            int counters = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 28)) - 1) << 1;
+            this.table = new long[counters / 16 * 4];
+            this.mask = table.length - 1;
+            this.sampleSize = Math.max(10, capacity * 10);
+        }
+
+        private int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                long spread = spread(hash, i);
+                int index = (int) spread & mask;
+                int shift = (int) (spread >>> 60) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xF));
+            }
+            return frequency;
+        }
+
+        private void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                long spread = spread(hash, i);
+                int index = (int) spread & mask;
+                int shift = (int) (spread >>> 60) << 2;
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private static long spread(int hash, int seed) {
+            long mixed = (hash + SEEDS[seed]) * SEEDS[(seed + 1) & 3];
+            return mixed ^ (mixed >>> 29);
+        }
+    }
+}
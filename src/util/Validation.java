@@ -0,0 +1,29 @@
+package util;
+
+// The field rules shared by the console prompts and bulk import. Hand-rolled loops instead of
+// String.matches, which compiles a new Pattern on every call.
+public final class Validation {
+    private Validation() {
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && !name.trim().isEmpty();
+    }
+
+    public static boolean isValidPhone(String phone) {
+        if (phone == null || phone.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static boolean isValidEmail(String email) {
+        return email != null && email.indexOf('@') > 0 && !email.endsWith("@");
+    }
+}